@@ -0,0 +1,448 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Benchmark harness for the DstarPlanner engines.  Runs three cases on
+ * maps of increasing size built by MapGenerator:
+ *
+ *   initial - initial expansion from the goal until the robot is reached
+ *   single  - the robot walks the path and finds the next cell blocked
+ *             every second step, one obstacle per replan
+ *   storm   - the robot walks the path and a batch of obstacles around it
+ *             is reported in one CostUpdateBatch per replan
+ *   corridor - initial plan through an open corridor 3 cells high and 64
+ *             times the size long, on a TiledGridStore.  From size 256 on
+ *             the path costs more than INFINITY_COST; a plan that comes
+ *             back unreachable is not counted
+ *
+ * For every case it reports expansions per second, latency percentiles of
+ * the timed calls and the allocation rate of the benchmark thread.  B/exp
+ * is the bytes the timed calls allocated per expanded state, after the
+ * warmup iterations.  Expanding a state allocates nothing; what is left is
+ * the PlanResult of each call, the rebuilt path and the growth of the cost
+ * table, the open list and its position pages as the search reaches new
+ * cells, so it falls as a storm goes on but does not reach 0.
+ *
+ * Every size also gets a "neighbors" row, sweeps of DstarMap.getNeighbors()
+ * over every cell of the map, the kernel every expansion runs.  Its
+ * expansions/s column counts cells.  It has to allocate nothing once warmed
+ * up, a sweep that does is reported.
+ *
+ * Usage: java dstar.bench.PlannerBenchmark [--sizes 7,64,256,1024]
+ *        [--engines basic,focused,lite,anytime] [--iterations n] [--warmup n]
+ *        [--steps n] [--storm n] [--density d] [--terrain t] [--seed s]
+ *        [--threads n] [--store dense|fixed]
+ *
+ * With --threads the D* engines compute the initial plan with that many
+ * threads, D* Lite always plans on one thread.  The anytime engine
+ * (Anytime D*, not run by default) is measured at its initial epsilon.
+ * --store fixed plans on a FixedPointGridStore instead of the dense store.
+ *
+ * 4096 x 4096 maps are left out of the default sizes, a full run of them
+ * takes tens of minutes and needs a heap of about 6GB (-Xmx6g).
+ */
+package dstar.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import dstar.AnytimeDstarPathFinder;
+import dstar.CostUpdateBatch;
+import dstar.DiscoveryPattern;
+import dstar.DstarLitePathFinder;
+import dstar.DstarMap;
+import dstar.DstarPathFinder;
+import dstar.DstarPlanner;
+import dstar.FixedPointGridStore;
+import dstar.GridStore;
+import dstar.MapGenerator;
+import dstar.MapTerrain;
+import dstar.OpenListType;
+import dstar.PlanResult;
+import dstar.SearchMode;
+import dstar.TiledGridStore;
+import dstar.Waypoint;
+
+public class PlannerBenchmark {
+
+	// cells the robot moves between two discoveries
+	private static final int ADVANCE = 2;
+
+	// storm obstacles are placed up to this many cells from the robot
+	private static final int STORM_RADIUS = 8;
+
+	// corridor length per unit of map size
+	private static final int CORRIDOR_LENGTH = 64;
+
+	private int[] sizes = {7, 64, 256, 1024};
+	private String[] engines = {"basic", "focused", "lite"};
+	private int iterations = 5;		// timed initial plans per size
+	private int warmup = 3;			// untimed runs before each case
+	private int steps = 50;			// replans per replan case
+	private int stormSize = 24;		// obstacles per storm batch
+	private double density = 0.2;	// fraction of blocked cells
+	private MapTerrain terrain = MapTerrain.CLUTTER;
+	private long seed = 42;
+	private int threads = 0;		// initial plan threads, 0 for the sequential loop
+	private boolean fixedPoint = false;	// plan on a FixedPointGridStore
+
+	// allocation counter of the current thread, null if the JVM has none
+	private com.sun.management.ThreadMXBean allocation;
+
+	public static void main(String[] args) {
+		PlannerBenchmark benchmark = new PlannerBenchmark();
+		benchmark.parseArguments(args);
+		benchmark.run();
+	}
+
+	public PlannerBenchmark(){
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean){
+			allocation = (com.sun.management.ThreadMXBean) threads;
+			allocation.setThreadAllocatedMemoryEnabled(true);
+		}
+	}
+
+	private void parseArguments(String[] args){
+		for(int i = 0; i + 1 < args.length; i += 2){
+			String value = args[i + 1];
+			if(args[i].equals("--sizes")){
+				String[] parts = value.split(",");
+				sizes = new int[parts.length];
+				for(int j = 0; j < parts.length; j++){
+					sizes[j] = Integer.parseInt(parts[j].trim());
+				}
+			}else if(args[i].equals("--engines")){
+				engines = value.split(",");
+			}else if(args[i].equals("--iterations")){
+				iterations = Integer.parseInt(value);
+			}else if(args[i].equals("--warmup")){
+				warmup = Integer.parseInt(value);
+			}else if(args[i].equals("--steps")){
+				steps = Integer.parseInt(value);
+			}else if(args[i].equals("--storm")){
+				stormSize = Integer.parseInt(value);
+			}else if(args[i].equals("--density")){
+				density = Double.parseDouble(value);
+			}else if(args[i].equals("--terrain")){
+				terrain = MapTerrain.valueOf(value.toUpperCase());
+			}else if(args[i].equals("--seed")){
+				seed = Long.parseLong(value);
+			}else if(args[i].equals("--threads")){
+				threads = Integer.parseInt(value);
+			}else if(args[i].equals("--store")){
+				if(!value.equals("dense") && !value.equals("fixed")){
+					throw new IllegalArgumentException("Unknown store: " + value);
+				}
+				fixedPoint = value.equals("fixed");
+			}else{
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+	}
+
+	public void run(){
+		System.out.println(String.format("%-8s %6s %-8s %5s %14s %10s %10s %10s %10s %12s %10s %8s",
+				"engine", "size", "case", "ops", "expansions/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc MB/s", "KB/op", "B/exp"));
+
+		for(int size : sizes){
+			for(String engine : engines){
+				// the largest maps are too slow to warm up on, the smaller
+				// sizes have already warmed the code by then
+				int rounds = size > 1024 ? 0 : warmup;
+				for(int i = 0; i < rounds; i++){
+					measureInitial(engine, size, 1);
+					measureReplans(engine, size, false);
+					measureReplans(engine, size, true);
+					measureCorridor(engine, size, 1);
+				}
+
+				report(engine, size, "initial", measureInitial(engine, size, iterations));
+				report(engine, size, "single", measureReplans(engine, size, false));
+				report(engine, size, "storm", measureReplans(engine, size, true));
+				report(engine, size, "corridor", measureCorridor(engine, size, iterations));
+			}
+
+			Measurement neighbors = measureNeighbors(size);
+			report("kernel", size, "neighbors", neighbors);
+			if(neighbors.bytes > 0){
+				System.out.println(String.format("kernel   %6d neighbors allocated %d bytes", size, neighbors.bytes));
+			}
+		}
+	}
+
+	/**
+	 * Times sweeps of getNeighbors() over every cell of a map, after one
+	 * untimed sweep
+	 */
+	private Measurement measureNeighbors(int size){
+		DstarMap map = generate(size);
+		int cells = map.getGrid().size();
+		int[] neighbors = new int[8];
+		int sweeps = Math.max(iterations, 1);
+		Measurement measurement = new Measurement(sweeps);
+
+		long checksum = 0;
+		for(int sweep = -1; sweep < sweeps; sweep++){
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for(int cell = 0; cell < cells; cell++){
+				int count = map.getNeighbors(cell, neighbors);
+				checksum += neighbors[count - 1];
+			}
+			long elapsed = System.nanoTime() - start;
+			if(sweep >= 0){
+				measurement.add(elapsed, cells, allocatedBytes() - bytes);
+			}
+		}
+
+		// keeps the sweeps from being optimized away
+		if(checksum == 42){
+			System.out.println();
+		}
+		return measurement;
+	}
+
+	/**
+	 * Times the initial plan on fresh maps, the map is regenerated for
+	 * every iteration because planning writes into it
+	 */
+	private Measurement measureInitial(String engine, int size, int count){
+		Measurement measurement = new Measurement(count);
+		for(int i = 0; i < count; i++){
+			DstarPlanner planner = createPlanner(engine, generate(size));
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			PlanResult result = computeInitialPlan(planner);
+			long elapsed = System.nanoTime() - start;
+
+			measurement.add(elapsed, result.getExpansions(), allocatedBytes() - bytes);
+		}
+		return measurement;
+	}
+
+	/**
+	 * Times the initial plan from one end of an open corridor to the other.
+	 * Only plans that reach the goal are counted
+	 */
+	private Measurement measureCorridor(String engine, int size, int count){
+		int length = size * CORRIDOR_LENGTH;
+		Measurement measurement = new Measurement(count);
+		for(int i = 0; i < count; i++){
+			DstarMap map = new DstarMap(new TiledGridStore(3, length));
+			GridStore grid = map.getGrid();
+			map.setEndpoints(grid.cellId(1, 0), grid.cellId(1, length - 1));
+			DstarPlanner planner = createPlanner(engine, map);
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			PlanResult result = computeInitialPlan(planner);
+			long elapsed = System.nanoTime() - start;
+
+			if(result.isReachable()){
+				measurement.add(elapsed, result.getExpansions(), allocatedBytes() - bytes);
+			}
+		}
+		return measurement;
+	}
+
+	private PlanResult computeInitialPlan(DstarPlanner planner){
+		if(threads > 0 && planner instanceof DstarPathFinder){
+			return ((DstarPathFinder) planner).computeInitialPlan(threads);
+		}
+		return planner.computeInitialPlan();
+	}
+
+	/**
+	 * Times one replan per step while the robot walks its path, either
+	 * after blocking the next waypoint or after a batch of obstacles around
+	 * the robot.  A walk that walls the robot in or reaches the goal is
+	 * started again on a fresh map until enough replans were timed
+	 */
+	private Measurement measureReplans(String engine, int size, boolean storm){
+		Random random = new Random(seed + size);
+		Measurement measurement = new Measurement(steps);
+
+		for(int walk = 0; walk < steps && measurement.count < steps; walk++){
+			if(!walk(engine, size, storm, random, measurement)){
+				break;
+			}
+		}
+
+		return measurement;
+	}
+
+	/**
+	 * Walks the robot on a fresh map until it is walled in, reaches the
+	 * goal or the measurement is full
+	 *
+	 * @return false if nothing could be timed on this map
+	 */
+	private boolean walk(String engine, int size, boolean storm, Random random, Measurement measurement){
+		DstarMap map = generate(size);
+		DstarPlanner planner = createPlanner(engine, map);
+		int timed = measurement.count;
+
+		if(!planner.computeInitialPlan().isReachable()){
+			return false;
+		}
+
+		CostUpdateBatch batch = new CostUpdateBatch(map);
+		while(measurement.count < steps){
+			Waypoint next = planner.nextWaypoint();
+			if(next.getStatus() != Waypoint.Status.MOVE || next.getCell() == map.getGoalId()){
+				break;
+			}
+
+			PlanResult result;
+			long bytes;
+			long start;
+			if(storm){
+				batch.clear();
+				batch.addObstacle(next.getRow(), next.getColumn());
+				addStorm(map, batch, random);
+
+				bytes = allocatedBytes();
+				start = System.nanoTime();
+				result = planner.replan(batch);
+			}else{
+				bytes = allocatedBytes();
+				start = System.nanoTime();
+				planner.reportObstacle(next.getRow(), next.getColumn());
+				result = planner.replan();
+			}
+			long elapsed = System.nanoTime() - start;
+			measurement.add(elapsed, result.getExpansions(), allocatedBytes() - bytes);
+
+			if(!result.isReachable()){
+				break;
+			}
+
+			// move on before the next discovery, a robot that finds every
+			// cell in front of it blocked soon walls itself in
+			for(int move = 0; move < ADVANCE; move++){
+				next = planner.nextWaypoint();
+				if(next.getStatus() != Waypoint.Status.MOVE){
+					break;
+				}
+				planner.moveRobot(next.getRow(), next.getColumn());
+			}
+		}
+
+		return measurement.count > timed;
+	}
+
+	/**
+	 * Adds open cells within a few cells of the robot to the batch, never
+	 * the goal or a cell touching the robot
+	 */
+	private void addStorm(DstarMap map, CostUpdateBatch batch, Random random){
+		GridStore grid = map.getGrid();
+		int robot = map.getRobotId();
+
+		for(int attempt = 0; attempt < stormSize * 4 && batch.getObstacleCount() < stormSize; attempt++){
+			int rowOffset = random.nextInt(2 * STORM_RADIUS + 1) - STORM_RADIUS;
+			int columnOffset = random.nextInt(2 * STORM_RADIUS + 1) - STORM_RADIUS;
+			int row = grid.rowOf(robot) + rowOffset;
+			int column = grid.columnOf(robot) + columnOffset;
+			if(!grid.inBounds(row, column) || (Math.abs(rowOffset) <= 1 && Math.abs(columnOffset) <= 1)){
+				continue;
+			}
+
+			int cell = grid.cellId(row, column);
+			if(cell != map.getGoalId() && grid.getState(cell) != GridStore.STATE_BLOCKED){
+				batch.addObstacle(row, column);
+			}
+		}
+	}
+
+	private DstarPlanner createPlanner(String engine, DstarMap map){
+		if(engine.equals("basic")){
+			return new DstarPathFinder(map, OpenListType.INDEXED_HEAP, SearchMode.BASIC);
+		}else if(engine.equals("focused")){
+			return new DstarPathFinder(map, OpenListType.INDEXED_HEAP, SearchMode.FOCUSED);
+		}else if(engine.equals("lite")){
+			return new DstarLitePathFinder(map, OpenListType.INDEXED_HEAP);
+		}else if(engine.equals("anytime")){
+			return new AnytimeDstarPathFinder(map);
+		}
+		throw new IllegalArgumentException("Unknown engine: " + engine);
+	}
+
+	/**
+	 * Builds a size x size map without hidden cells, the same size and
+	 * seed always give the same map
+	 */
+	private DstarMap generate(int size){
+		MapGenerator generator = new MapGenerator(seed ^ size);
+		generator.setDensity(density);
+		DstarMap map = generator.generate(size, size, terrain, DiscoveryPattern.NONE);
+		if(!fixedPoint){
+			return map;
+		}
+
+		DstarMap fixed = new DstarMap(new FixedPointGridStore(map.getGrid()));
+		fixed.setEndpoints(map.getStartId(), map.getGoalId());
+		return fixed;
+	}
+
+	private long allocatedBytes(){
+		if(allocation == null){
+			return 0;
+		}
+		return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void report(String engine, int size, String name, Measurement measurement){
+		if(measurement.count == 0){
+			System.out.println(String.format("%-8s %6d %-8s %5d  (goal unreachable)", engine, size, name, 0));
+			return;
+		}
+
+		double seconds = measurement.totalNanos / 1e9;
+		System.out.println(String.format("%-8s %6d %-8s %5d %14.0f %10.3f %10.3f %10.3f %10.3f %12.1f %10.1f %8.2f",
+				engine, size, name, measurement.count,
+				measurement.expansions / seconds,
+				measurement.percentile(0.50) / 1e6,
+				measurement.percentile(0.90) / 1e6,
+				measurement.percentile(0.99) / 1e6,
+				measurement.percentile(1.00) / 1e6,
+				allocation == null ? 0 : measurement.bytes / seconds / (1 << 20),
+				measurement.bytes / 1024.0 / measurement.count,
+				measurement.expansions == 0 ? 0 : measurement.bytes / (double) measurement.expansions));
+	}
+
+	/**
+	 * Latencies, expansions and allocated bytes of the timed calls of one case
+	 */
+	private static class Measurement {
+		long[] latencies;
+		int count = 0;
+		long totalNanos = 0;
+		long expansions = 0;
+		long bytes = 0;
+
+		Measurement(int capacity){
+			latencies = new long[Math.max(capacity, 1)];
+		}
+
+		void add(long nanos, long expansions, long bytes){
+			latencies[count++] = nanos;
+			totalNanos += nanos;
+			this.expansions += expansions;
+			this.bytes += bytes;
+		}
+
+		/**
+		 * Nearest rank percentile of the latencies
+		 */
+		long percentile(double fraction){
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(fraction * count) - 1;
+			return sorted[Math.max(rank, 0)];
+		}
+	}
+}
@@ -0,0 +1,592 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * AnytimeDstarPathFinder implements Anytime D*, which trades path quality
+ * for planning time on large maps.  It reads the same DstarMap as the other
+ * planners.
+ *
+ * Based on the paper
+ *
+ * "Anytime Dynamic A*: An Anytime, Replanning Algorithm" by Maxim
+ * Likhachev, Dave Ferguson, Geoffrey Gordon, Anthony Stentz and
+ * Sebastian Thrun
+ *
+ * Like D* Lite every state keeps g and rhs, but the heuristic in the key
+ * of an overconsistent state is inflated by epsilon:
+ * [rhs + epsilon * h(robot, state) ; rhs], otherwise [g + h ; g].  A plan
+ * is found after few expansions and costs at most epsilon times the
+ * optimal one.  improvePlan() lowers epsilon and repairs the plan, states
+ * that became inconsistent after they were expanded in a pass are kept
+ * aside and put back on the open list for the next pass, so every pass
+ * carries on from the work of the ones before it.  Once epsilon is 1 the
+ * plan is optimal.  A replan after cost changes starts again from the
+ * initial epsilon.
+ *
+ * The search state lives in a GridStore of its own, like D* Lite's: h holds
+ * g and k holds rhs.
+ */
+package dstar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class AnytimeDstarPathFinder implements DstarPlanner {
+
+	// g and rhs of states that can't reach the goal
+	private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+	// sums of costs are rounded like D* Lite does
+	private static final double ROUNDING = 1e6;
+
+	private DstarMap map;
+	private GridStore grid;
+	private CostTable costs;
+	private OpenList openList;
+
+	private int goal;
+	private int currentRobotPosition;
+
+	// inflation of the heuristic, lowered by improvePlan()
+	private double initialEpsilon;
+	private double epsilonStep;
+	private double epsilon;
+
+	// states expanded as overconsistent in the current pass, and states
+	// that became inconsistent after that.  Both are dense bit sets, one
+	// bit per cell
+	private BitSet closed = new BitSet();
+	private BitSet inconsistent = new BitSet();
+
+	// set by reportObstacle, cleared by the next pass
+	private boolean replanPending = false;
+
+	private PlannerListener listener;
+	private long expansions = 0;
+
+	// optional metrics, the statistics are counted either way
+	private PlannerMetrics metrics;
+	private PlanStatistics statistics = new PlanStatistics();
+
+	// reusable neighbor buffers, the outer one for the expanded state
+	// and the inner one to work out rhs of its neighbors
+	private int[] neighbors = new int[8];
+	private int[] successors = new int[8];
+
+	/**
+	 * Default constructor, uses an indexed heap for the open list and
+	 * starts with an epsilon of 2.5, lowered by 0.5 per improvePlan()
+	 *
+	 * @param map a valid DstarMap
+	 */
+	public AnytimeDstarPathFinder(DstarMap map){
+		this(map, OpenListType.INDEXED_HEAP, 2.5, 0.5);
+	}
+
+	/**
+	 * Builds an Anytime D* path finder
+	 *
+	 * @param map a valid DstarMap
+	 * @param openListType open list implementation to use
+	 * @param initialEpsilon inflation of the heuristic for the first pass, at least 1
+	 * @param epsilonStep how much improvePlan() lowers epsilon, more than 0
+	 */
+	public AnytimeDstarPathFinder(DstarMap map, OpenListType openListType, double initialEpsilon, double epsilonStep){
+		if(initialEpsilon < 1){
+			throw new IllegalArgumentException("Epsilon can't be below 1: " + initialEpsilon);
+		}
+		if(epsilonStep <= 0){
+			throw new IllegalArgumentException("Epsilon step has to be above 0: " + epsilonStep);
+		}
+
+		this.map = map;
+		this.grid = map.getGrid().newSearchStore();
+		this.costs = new CostTable(grid);
+		this.openList = openListType.create(grid.size());
+		this.initialEpsilon = initialEpsilon;
+		this.epsilonStep = epsilonStep;
+		this.epsilon = initialEpsilon;
+
+		goal = map.getGoalId();
+		currentRobotPosition = map.getRobotId();
+	}
+
+	/**
+	 * Finds a plan with the initial epsilon
+	 */
+	public PlanResult computeInitialPlan(){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		epsilon = initialEpsilon;
+		setRhs(goal, 0);
+		updateVertex(goal);
+
+		if(listener != null){
+			listener.planStarted(this);
+		}
+
+		computeOrImprovePath();
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(true, result);
+		if(listener != null){
+			listener.initialPlanComputed(this, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Lowers epsilon by one step, never below 1, and improves the plan.
+	 * Cost changes reported since the last pass are taken into account as
+	 * well.  Nothing is expanded once epsilon is 1 and the plan is up to date
+	 *
+	 * @return result of the pass, with the epsilon the plan now holds to
+	 */
+	public PlanResult improvePlan(){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		epsilon = Math.max(1, epsilon - epsilonStep);
+		runPass();
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(false, result);
+		if(listener != null){
+			listener.replanned(this, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sets the costs of every edge around the obstacle to infinity and
+	 * updates the states whose rhs depended on them
+	 */
+	public void reportObstacle(int row, int column){
+		int cell = grid.cellId(row, column);
+
+		int count = blockCell(cell);
+		updateChangedVertex(cell);
+		for(int i = 0; i < count; i++){
+			updateChangedVertex(neighbors[i]);
+		}
+		replanPending = true;
+
+		if(listener != null){
+			listener.obstacleReported(this, cell);
+		}
+	}
+
+	/**
+	 * Changes every cost of the batch first, then updates each state whose
+	 * rhs may have changed exactly once
+	 */
+	public PlanResult replan(CostUpdateBatch batch){
+		if(!batch.isEmpty()){
+			// collect every state next to a changed edge
+			int[] affected = new int[batch.getObstacleCount() * 9 + batch.getEdgeCount() * 2];
+			int affectedCount = 0;
+
+			for(int i = 0; i < batch.getObstacleCount(); i++){
+				int cell = batch.getObstacle(i);
+				int count = blockCell(cell);
+
+				affected[affectedCount++] = cell;
+				for(int j = 0; j < count; j++){
+					affected[affectedCount++] = neighbors[j];
+				}
+
+				if(listener != null){
+					listener.obstacleReported(this, cell);
+				}
+			}
+
+			for(int i = 0; i < batch.getEdgeCount(); i++){
+				int from = batch.getEdgeFrom(i);
+				int to = batch.getEdgeTo(i);
+				costs.setValue(from, to, batch.getEdgeCost(i));
+
+				affected[affectedCount++] = from;
+				affected[affectedCount++] = to;
+			}
+
+			// sorting puts duplicates next to each other
+			Arrays.sort(affected, 0, affectedCount);
+			for(int i = 0; i < affectedCount; i++){
+				if(i == 0 || affected[i] != affected[i - 1]){
+					updateChangedVertex(affected[i]);
+				}
+			}
+			replanPending = true;
+		}
+
+		return replan();
+	}
+
+	/**
+	 * Repairs the plan after cost changes, starting again from the initial
+	 * epsilon so the robot has a path quickly.  Call improvePlan() to bring
+	 * epsilon down again
+	 */
+	public PlanResult replan(){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		if(replanPending){
+			epsilon = initialEpsilon;
+			runPass();
+		}
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(false, result);
+		if(listener != null){
+			listener.replanned(this, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The next waypoint is the neighbor that minimizes the edge cost plus g
+	 */
+	public Waypoint nextWaypoint(){
+		int here = currentRobotPosition;
+
+		if(here == goal){
+			return waypoint(Waypoint.Status.GOAL_REACHED, here);
+		}
+		if(!isReachable()){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+
+		int best = GridStore.NO_CELL;
+		double bestCost = INFINITY;
+		int count = map.getNeighbors(here, neighbors);
+		for(int i = 0; i < count; i++){
+			double cost = round(edgeCost(here, neighbors[i]) + g(neighbors[i]));
+			if(cost < bestCost){
+				bestCost = cost;
+				best = neighbors[i];
+			}
+		}
+
+		if(best == GridStore.NO_CELL){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+
+		grid.setBackPointer(here, best);
+		return waypoint(Waypoint.Status.MOVE, best);
+	}
+
+	/**
+	 * Moves the robot.  Keys on the open list are worked out again from the
+	 * new position at the start of the next pass
+	 */
+	public void moveRobot(int row, int column){
+		currentRobotPosition = grid.cellId(row, column);
+		map.setRobotLocation(currentRobotPosition);
+
+		if(listener != null){
+			listener.robotMoved(this, currentRobotPosition);
+		}
+	}
+
+	/**
+	 * Returns the epsilon of the current plan, its cost is at most epsilon
+	 * times the cost of the optimal path
+	 *
+	 * @return current epsilon, 1 once the plan is optimal
+	 */
+	public double getEpsilon(){
+		return epsilon;
+	}
+
+	public long getExpansions(){
+		return expansions;
+	}
+
+	public DstarMap getMap(){
+		return map;
+	}
+
+	public void setListener(PlannerListener listener){
+		this.listener = listener;
+	}
+
+	public void setMetrics(PlannerMetrics metrics){
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the search state of this planner, h holds g and k holds rhs
+	 *
+	 * @return grid store of this planner
+	 */
+	public GridStore getGrid(){
+		return grid;
+	}
+
+	/**
+	 * Starts a new pass with the current epsilon: the states set aside as
+	 * inconsistent go back on the open list, every key is worked out again
+	 * and no state counts as expanded yet
+	 */
+	private void runPass(){
+		for(int s = inconsistent.nextSetBit(0); s >= 0; s = inconsistent.nextSetBit(s + 1)){
+			if(g(s) != rhs(s)){
+				openList.add(s, keyOf(s), Math.min(g(s), rhs(s)));
+				grid.setTag(s, GridStore.TAG_OPEN);
+				countInsert();
+			}
+		}
+		inconsistent.clear();
+		closed.clear();
+
+		int[] open = openList.toArray();
+		for(int i = 0; i < open.length; i++){
+			int s = open[i];
+			openList.add(s, keyOf(s), Math.min(g(s), rhs(s)));
+		}
+
+		computeOrImprovePath();
+		replanPending = false;
+	}
+
+	/**
+	 * Expands states until the robot is not underconsistent and no state on
+	 * the open list has a smaller key than the robot
+	 */
+	private void computeOrImprovePath(){
+		int robot = currentRobotPosition;
+
+		while(!openList.isEmpty()){
+			double robotKey = keyOf(robot);
+			double robotSecondKey = Math.min(g(robot), rhs(robot));
+			double topKey = openList.peekKey();
+			double topSecondKey = openList.peekSecondKey();
+
+			boolean topBelowRobot = topKey < robotKey || (topKey == robotKey && topSecondKey < robotSecondKey);
+			if(!topBelowRobot && rhs(robot) <= g(robot)){
+				break;
+			}
+
+			int u = openList.poll();
+			grid.setTag(u, GridStore.TAG_CLOSED);
+			expansions++;
+
+			int count = map.getNeighbors(u, neighbors);
+			if(g(u) > rhs(u)){
+				// overconsistent, lower g and pass it on to the neighbors.
+				// Neighbors it makes inconsistent again this pass are set aside
+				statistics.lowerExpansions++;
+				setG(u, rhs(u));
+				closed.set(u);
+				for(int i = 0; i < count; i++){
+					int s = neighbors[i];
+					if(s != goal){
+						double cost = round(edgeCost(s, u) + g(u));
+						if(cost < rhs(s)){
+							setRhs(s, cost);
+						}
+						updateVertex(s);
+					}
+				}
+			}else{
+				// underconsistent, raise g and recompute whoever went through u
+				statistics.raiseExpansions++;
+				double oldG = g(u);
+				setG(u, INFINITY);
+				for(int i = 0; i < count; i++){
+					int s = neighbors[i];
+					if(s != goal && rhs(s) == round(edgeCost(s, u) + oldG)){
+						updateRhs(s);
+					}
+					updateVertex(s);
+				}
+				if(u != goal){
+					updateRhs(u);
+				}
+				updateVertex(u);
+			}
+
+			if(listener != null){
+				listener.stateExpanded(this, u);
+			}
+		}
+	}
+
+	/**
+	 * Puts an inconsistent state on the open list, or sets it aside for the
+	 * next pass if it was already expanded in this one.  Consistent states
+	 * are taken off the open list
+	 */
+	private void updateVertex(int u){
+		if(g(u) != rhs(u)){
+			if(closed.get(u)){
+				inconsistent.set(u);
+			}else{
+				openList.add(u, keyOf(u), Math.min(g(u), rhs(u)));
+				grid.setTag(u, GridStore.TAG_OPEN);
+				countInsert();
+			}
+		}else if(openList.remove(u)){
+			grid.setTag(u, GridStore.TAG_CLOSED);
+		}
+	}
+
+	/**
+	 * Updates a state next to a changed cost, counting it if the change
+	 * made an expanded state inconsistent
+	 */
+	private void updateChangedVertex(int u){
+		boolean consistent = grid.getTag(u) == GridStore.TAG_CLOSED && !inconsistent.get(u);
+		updateRhs(u);
+		updateVertex(u);
+		if(consistent && g(u) != rhs(u)){
+			statistics.reopenedStates++;
+		}
+	}
+
+	private void countInsert(){
+		statistics.inserts++;
+		if(openList.size() > statistics.openListPeak){
+			statistics.openListPeak = openList.size();
+		}
+	}
+
+	/**
+	 * Recomputes rhs of a state as the cheapest edge plus g over its neighbors
+	 */
+	private void updateRhs(int s){
+		if(s == goal){
+			return;
+		}
+
+		double best = INFINITY;
+		int count = map.getNeighbors(s, successors);
+		for(int i = 0; i < count; i++){
+			double cost = round(edgeCost(s, successors[i]) + g(successors[i]));
+			if(cost < best){
+				best = cost;
+			}
+		}
+		setRhs(s, best);
+	}
+
+	/**
+	 * Sets the cost of every edge around a cell to infinity
+	 *
+	 * @param cell cell id of the obstacle
+	 * @return number of neighbors of the cell, left in the neighbors buffer
+	 */
+	private int blockCell(int cell){
+		int count = map.getNeighbors(cell, neighbors);
+		for(int i = 0; i < count; i++){
+			costs.setValue(cell, neighbors[i], DstarPathFinder.INFINITY_COST);
+		}
+		return count;
+	}
+
+	/**
+	 * Edge costs of infinity or more mean there is no edge at all
+	 */
+	private double edgeCost(int from, int to){
+		double cost = costs.getValue(from, to);
+		if(cost >= DstarPathFinder.INFINITY_COST){
+			return INFINITY;
+		}
+		return cost;
+	}
+
+	/**
+	 * Only overconsistent states get the inflated heuristic, underconsistent
+	 * ones have to be raised before anything that went through them
+	 */
+	private double keyOf(int s){
+		if(g(s) > rhs(s)){
+			return round(rhs(s) + epsilon * heuristic(s));
+		}
+		return round(g(s) + heuristic(s));
+	}
+
+	private double heuristic(int s){
+		return octileDistance(s, currentRobotPosition);
+	}
+
+	/**
+	 * Octile distance between two cells, the cost of the cheapest path
+	 * between them if the map had no obstacles
+	 */
+	private double octileDistance(int from, int to){
+		int rows = Math.abs(grid.rowOf(from) - grid.rowOf(to));
+		int columns = Math.abs(grid.columnOf(from) - grid.columnOf(to));
+		int diagonal = Math.min(rows, columns);
+
+		return round(DstarPathFinder.ADJACENT_COST * diagonal + DstarPathFinder.NORMAL_COST * (Math.max(rows, columns) - diagonal));
+	}
+
+	/**
+	 * Rounds a sum of costs, infinity stays infinity
+	 */
+	private static double round(double cost){
+		return Math.rint(cost * ROUNDING) / ROUNDING;
+	}
+
+	private double g(int s){
+		return grid.getTag(s) == GridStore.TAG_NEW ? INFINITY : grid.getH(s);
+	}
+
+	private double rhs(int s){
+		return grid.getTag(s) == GridStore.TAG_NEW ? INFINITY : grid.getK(s);
+	}
+
+	private void setG(int s, double value){
+		touch(s);
+		grid.setH(s, value);
+	}
+
+	private void setRhs(int s, double value){
+		touch(s);
+		grid.setK(s, value);
+	}
+
+	/**
+	 * A NEW state becomes CLOSED with g = rhs = infinity the first time it is written
+	 */
+	private void touch(int s){
+		if(grid.getTag(s) == GridStore.TAG_NEW){
+			grid.setH(s, INFINITY);
+			grid.setK(s, INFINITY);
+			grid.setTag(s, GridStore.TAG_CLOSED);
+		}
+	}
+
+	private boolean isReachable(){
+		return rhs(currentRobotPosition) < INFINITY;
+	}
+
+	/**
+	 * Hands the statistics of a plan to the metrics and starts counting
+	 * for the next one
+	 */
+	private void reportStatistics(boolean initialPlan, PlanResult result){
+		if(metrics != null){
+			statistics.elapsedNanos = result.getElapsedNanos();
+			statistics.expansions = result.getExpansions();
+			statistics.reachable = result.isReachable();
+			metrics.planFinished(this, initialPlan, statistics);
+		}
+		statistics.reset(openList.size());
+	}
+
+	private PlanResult buildResult(long startTime, long startExpansions){
+		PlanResult.Status status = isReachable() ? PlanResult.Status.PLANNED : PlanResult.Status.UNREACHABLE;
+		return new PlanResult(status, expansions - startExpansions, System.nanoTime() - startTime,
+				status == PlanResult.Status.PLANNED ? rhs(currentRobotPosition) : DstarPathFinder.INFINITY_COST, epsilon);
+	}
+
+	private Waypoint waypoint(Waypoint.Status status, int cell){
+		return new Waypoint(status, cell, grid.rowOf(cell), grid.columnOf(cell), grid.getState(cell));
+	}
+}
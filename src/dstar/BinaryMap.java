@@ -0,0 +1,294 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Compact binary map format.  The file is a 24 byte header followed by
+ * the cell states packed 2 bits per cell, 4 cells per byte, in cell id
+ * order (row * columns + column), lowest bits first:
+ *
+ *   int   magic "DSTR"
+ *   short version
+ *   byte  bits per cell (2)
+ *   byte  reserved
+ *   int   rows
+ *   int   columns
+ *   int   start cell id
+ *   int   goal cell id
+ *   byte[] cells, 0 = O, 1 = B, 2 = U
+ *
+ * A BinaryMap is a read only view onto a memory mapped file, so cells are
+ * only paged in when they are read.  toMap() decodes the whole file into
+ * a DstarMap for planning.
+ */
+package dstar;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class BinaryMap {
+
+	public static final int MAGIC = 0x44535452;	// "DSTR"
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 24;
+
+	private static final int BITS_PER_CELL = 2;
+	private static final int CELLS_PER_BYTE = 8 / BITS_PER_CELL;
+
+	// cell state for each 2 bit code, code 3 is not used
+	static final byte[] CODE_STATES = {GridStore.STATE_OPEN, GridStore.STATE_BLOCKED, GridStore.STATE_UNKNOWN};
+
+	// cells are written in blocks of this many bytes
+	private static final int WRITE_BLOCK = 1 << 16;
+
+	private MappedByteBuffer buffer;
+	private int rows;
+	private int columns;
+	private int start;
+	private int goal;
+
+	private BinaryMap(MappedByteBuffer buffer, int rows, int columns, int start, int goal){
+		this.buffer = buffer;
+		this.rows = rows;
+		this.columns = columns;
+		this.start = start;
+		this.goal = goal;
+	}
+
+	/**
+	 * Memory maps a binary map file and checks its header.  The cells are
+	 * not read until they are asked for
+	 *
+	 * @param filename path of the binary map
+	 * @return view onto the file
+	 * @throws MapFormatException if the file is not a valid binary map
+	 * @throws IOException if the file cannot be read
+	 */
+	public static BinaryMap open(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if(length < HEADER_SIZE){
+				throw new MapFormatException("Binary map is shorter than its header");
+			}
+
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+			if(buffer.getInt(0) != MAGIC){
+				throw new MapFormatException("Not a binary map file");
+			}
+			if(buffer.getShort(4) != VERSION){
+				throw new MapFormatException("Unsupported binary map version " + buffer.getShort(4));
+			}
+			if(buffer.get(6) != BITS_PER_CELL){
+				throw new MapFormatException("Unsupported cell size of " + buffer.get(6) + " bits");
+			}
+
+			int rows = buffer.getInt(8);
+			int columns = buffer.getInt(12);
+			int start = buffer.getInt(16);
+			int goal = buffer.getInt(20);
+
+			long cells = (long) rows * columns;
+			if(rows <= 0 || columns <= 0 || cells > Integer.MAX_VALUE){
+				throw new MapFormatException("Invalid map size " + rows + " x " + columns);
+			}
+			if(length < HEADER_SIZE + packedSize(cells)){
+				throw new MapFormatException("Binary map is truncated");
+			}
+			if(start < 0 || start >= cells){
+				throw new MapFormatException("Start cell is outside of the map");
+			}
+			if(goal < 0 || goal >= cells){
+				throw new MapFormatException("Goal cell is outside of the map");
+			}
+
+			return new BinaryMap(buffer, rows, columns, start, goal);
+		}finally{
+			file.close();
+		}
+	}
+
+	/**
+	 * Loads a binary map file into a DstarMap
+	 *
+	 * @param filename path of the binary map
+	 * @return the loaded map, the robot is placed on the start cell
+	 * @throws IOException if the file cannot be read or is not a valid binary map
+	 */
+	public static DstarMap load(String filename) throws IOException {
+		return open(filename).toMap();
+	}
+
+	/**
+	 * Writes the cell states, start and goal of a map as a binary map file
+	 *
+	 * @param map map to save
+	 * @param filename path of the binary map
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(DstarMap map, String filename) throws IOException {
+		GridStore grid = map.getGrid();
+		int size = grid.size();
+
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try{
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+
+			ByteBuffer block = ByteBuffer.allocate(WRITE_BLOCK);
+			block.putInt(MAGIC);
+			block.putShort(VERSION);
+			block.put((byte) BITS_PER_CELL);
+			block.put((byte) 0);
+			block.putInt(grid.getRows());
+			block.putInt(grid.getColumns());
+			block.putInt(map.getStartId());
+			block.putInt(map.getGoalId());
+
+			for(int id = 0; id < size; id += CELLS_PER_BYTE){
+				int packed = 0;
+				int last = Math.min(id + CELLS_PER_BYTE, size);
+				for(int cell = id; cell < last; cell++){
+					packed |= stateCode(grid.getState(cell)) << ((cell - id) * BITS_PER_CELL);
+				}
+
+				if(!block.hasRemaining()){
+					writeBlock(channel, block);
+				}
+				block.put((byte) packed);
+			}
+			writeBlock(channel, block);
+		}finally{
+			file.close();
+		}
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getStartId() {
+		return start;
+	}
+
+	public int getGoalId() {
+		return goal;
+	}
+
+	/**
+	 * Reads the state of one cell straight from the mapped file
+	 *
+	 * @param id cell id
+	 * @return O, B or U
+	 */
+	public byte getState(int id){
+		int packed = buffer.get(HEADER_SIZE + id / CELLS_PER_BYTE);
+		return CODE_STATES[(packed >> ((id % CELLS_PER_BYTE) * BITS_PER_CELL)) & 3];
+	}
+
+	public byte getState(int row, int column){
+		return getState(row * columns + column);
+	}
+
+	/**
+	 * Decodes the whole file into a new DstarMap
+	 *
+	 * @return the map, the robot is placed on the start cell
+	 * @throws MapFormatException if a cell holds an unused state code
+	 */
+	public DstarMap toMap() throws MapFormatException {
+		return decode(new DstarMap(rows, columns));
+	}
+
+	/**
+	 * Decodes the whole file into a new DstarMap backed by a
+	 * TiledGridStore, only chunks with blocked or unknown cells are
+	 * allocated
+	 *
+	 * @return the map, the robot is placed on the start cell
+	 * @throws MapFormatException if a cell holds an unused state code
+	 */
+	public DstarMap toTiledMap() throws MapFormatException {
+		return decode(new DstarMap(new TiledGridStore(rows, columns)));
+	}
+
+	/**
+	 * Writes the cell states of the file into an empty map of the same size
+	 */
+	private DstarMap decode(DstarMap map) throws MapFormatException {
+		GridStore grid = map.getGrid();
+		int size = rows * columns;
+
+		ByteBuffer cells = buffer.duplicate();
+		cells.position(HEADER_SIZE);
+
+		for(int id = 0; id < size; id += CELLS_PER_BYTE){
+			int packed = cells.get() & 0xff;
+
+			// new stores are all open, so a byte of open cells is skipped
+			if(packed == 0){
+				continue;
+			}
+
+			int last = Math.min(id + CELLS_PER_BYTE, size);
+			for(int cell = id; cell < last; cell++, packed >>= BITS_PER_CELL){
+				int code = packed & 3;
+				if(code >= CODE_STATES.length){
+					throw new MapFormatException("Invalid cell state code " + code, cell / columns, cell % columns);
+				}
+				if(code != 0){
+					grid.setState(cell, CODE_STATES[code]);
+				}
+			}
+		}
+
+		map.setEndpoints(start, goal);
+		return map;
+	}
+
+	/**
+	 * Checks the first bytes of a file for the binary map magic number
+	 *
+	 * @param filename path of the file
+	 * @return true if the file starts like a binary map
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isBinaryMap(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try{
+			return file.length() >= HEADER_SIZE && file.readInt() == MAGIC;
+		}finally{
+			file.close();
+		}
+	}
+
+	private static long packedSize(long cells){
+		return (cells + CELLS_PER_BYTE - 1) / CELLS_PER_BYTE;
+	}
+
+	static int stateCode(byte state){
+		if(state == GridStore.STATE_BLOCKED){
+			return 1;
+		}
+		if(state == GridStore.STATE_UNKNOWN){
+			return 2;
+		}
+		return 0;
+	}
+
+	private static void writeBlock(FileChannel channel, ByteBuffer block) throws IOException {
+		block.flip();
+		while(block.hasRemaining()){
+			channel.write(block);
+		}
+		block.clear();
+	}
+}
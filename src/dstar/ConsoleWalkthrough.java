@@ -0,0 +1,92 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Interactive walkthrough of the planner.  Prints the map after every
+ * planner event and waits for the user to press enter, which is how the
+ * path finder used to behave on its own.  After an expansion only the
+ * cells that changed are printed.
+ */
+package dstar;
+
+public class ConsoleWalkthrough implements PlannerListener {
+
+	private int viewportRows;
+	private int viewportColumns;
+
+	// renderer of the map being walked through, built on the first event
+	private MapRenderer renderer;
+
+	/**
+	 * Prints the whole map
+	 */
+	public ConsoleWalkthrough(){
+		this(0, 0);
+	}
+
+	/**
+	 * Prints a window of the map around the robot
+	 *
+	 * @param viewportRows rows of the window, 0 for all rows
+	 * @param viewportColumns columns of the window, 0 for all columns
+	 */
+	public ConsoleWalkthrough(int viewportRows, int viewportColumns){
+		this.viewportRows = viewportRows;
+		this.viewportColumns = viewportColumns;
+	}
+
+	public void planStarted(DstarPlanner planner) {
+		renderer(planner).render();
+		prompt("Map has been initialized!", "Ready to begin (press enter):");
+	}
+
+	public void stateExpanded(DstarPlanner planner, int cell) {
+		System.out.println("Planning....");
+		System.out.println("Changed cells:");
+		renderer(planner).renderChanges();
+		prompt("Press ENTER to continue...");
+	}
+
+	public void initialPlanComputed(DstarPlanner planner, PlanResult result) {
+		renderer(planner).render();
+		prompt("Map has been expanded from goal...",
+				"We will either begin tracing to goal, or the goal is unreachable (press enter):");
+	}
+
+	public void obstacleReported(DstarPlanner planner, int cell) {
+		prompt("Unkown Obstacle!!!", "Find another way (press enter):");
+	}
+
+	public void replanned(DstarPlanner planner, PlanResult result) {
+		if(result.isReachable()){
+			renderer(planner).render();
+			prompt("Whew... I found my way!!", "Move again (press enter):");
+		}
+	}
+
+	public void robotMoved(DstarPlanner planner, int cell) {
+		renderer(planner).render();
+		prompt("Robot Moved!!", "Move again (press enter):");
+	}
+
+	private MapRenderer renderer(DstarPlanner planner){
+		if(renderer == null){
+			renderer = new MapRenderer(planner.getMap());
+			renderer.setViewport(viewportRows, viewportColumns);
+		}
+		return renderer;
+	}
+
+	/**
+	 * Prints the messages and waits for enter
+	 */
+	private void prompt(String... messages){
+		for(String message: messages){
+			System.out.println(message);
+		}
+		try{
+			System.in.read();
+		}catch(Exception e){
+
+		}
+	}
+}
@@ -1,120 +1,280 @@
 /**
  * @author J. Levy, P. Shafer
- * 
- * CostTable object for use in D* algorithm.  Provides a priority queue base
- * look look up table for path costs between DstarNodes
+ *
+ * CostTable object for use in D* algorithm.  Provides the path costs between
+ * neighboring cells of a GridStore.
+ *
+ * Costs are not stored up front.  The default cost of an edge is worked out
+ * when it is asked for: 1 for a straight step, 1.4 for a diagonal step and
+ * infinity when either cell is blocked.  Only costs that differ from the
+ * default (ie. obstacles found while traversing) are stored, in an open
+ * addressing hash table keyed by the two cell ids packed into a long.
+ *
+ * Every cost can also be read in fixed-point units (see GridStore.COST_SCALE),
+ * which is what DstarPathFinder works with.  An edge costing INFINITY_COST
+ * or more is blocked and reads as INFINITY_UNITS.
  */
 package dstar;
 
-import java.util.Hashtable;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class CostTable {
 
-	// cost table is stored using a hash table
-	private HashMap<String,Double> table;
-	
+	// marks an empty slot in the key table, packed edge ids are never negative
+	private static final long EMPTY = -1L;
+
+	// grid the costs are worked out for
+	private GridStore grid;
+
+	// costs in fixed-point units.  INFINITY_UNITS stands for a blocked edge
+	// and an unreachable h, it is far above any real path cost and two of
+	// them still add up without overflowing an int
+	static final int NORMAL_UNITS = toUnits(DstarPathFinder.NORMAL_COST);
+	static final int ADJACENT_UNITS = toUnits(DstarPathFinder.ADJACENT_COST);
+	static final int INFINITY_UNITS = Integer.MAX_VALUE / 2;
+
+	// override table, keys, values and units are parallel arrays
+	private long[] keys;
+	private double[] values;
+	private int[] units;
+	private int count = 0;
+
 	/**
-	 * Default constructor
+	 * Builds a cost table for the cells of the given grid
+	 *
+	 * @param grid grid store the cells live in
 	 */
-	public CostTable(){
-		table = new HashMap<String,Double>();
+	public CostTable(GridStore grid){
+		this.grid = grid;
+
+		keys = new long[16];
+		values = new double[16];
+		units = new int[16];
+		Arrays.fill(keys, EMPTY);
 	}
-	
+
 	/**
-	 * Uses the labels from 2 nodes to build a hash key and stores value
-	 * at the hash key.
-	 * 
-	 * Costs are 2 way, so we only need to store a combination of the key/value once
-	 * 
-	 * @param node1 label of node for part of hash key
-	 * @param node2 lable of node for part of hash key
-	 * @param value value to store key
+	 * Sets the cost between two neighboring cells, overriding the default cost.
+	 *
+	 * Costs are 2 way, so the same value is used for from -> to and to -> from
+	 *
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @param value cost of the edge
 	 */
-	public void setValue(String node1, String node2, double value){
-		String hash1 = node1+node2;
-		
-		if(!isSet(node1,node2)){
-			table.put(hash1, value);
+	public void setValue(int from, int to, double value){
+		long key = edgeKey(from, to);
+		int slot = find(key);
+
+		if(keys[slot] == EMPTY){
+			keys[slot] = key;
+			count++;
+			if(count * 2 > keys.length){
+				values[slot] = value;
+				units[slot] = toUnits(value);
+				grow();
+				return;
+			}
 		}
+		values[slot] = value;
+		units[slot] = toUnits(value);
 	}
-	
+
 	/**
-	 * Updates the value for the derived hash key.  Since costs are 2 way the value 
-	 * only needs to be stored once, so the key can be node1+node2 or node2+node1
-	 * 
-	 * @param node1 label of node for part of hash key
-	 * @param node2 lable of node for part of hash key
-	 * @param value value to store for key
+	 * Returns the cost between two neighboring cells
+	 *
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @return overridden cost if one was set, otherwise the default cost
 	 */
-	public void updateValue(String node1, String node2, double value){
-		String hash1 = node1+node2;
-		String hash2 = node2+node1;
-		
-		
-		if(table.containsKey(hash1)){ // if hash1 exits, then update hash1
-			table.put(hash1, value);
-		}else if(table.containsKey(hash2)){ // else if hash2 exists, then update hash2
-			table.put(hash2, value);
+	public double getValue(int from, int to){
+		if(count > 0){
+			int slot = find(edgeKey(from, to));
+			if(keys[slot] != EMPTY){
+				return values[slot];
+			}
 		}
+
+		return defaultValue(from, to);
 	}
-	
+
 	/**
-	 * Checks to see of the table contains the derived key
-	 * 
-	 * @param node1 label of node for part of hash key
-	 * @param node2 lable of node for part of hash key
-	 * @return true if a key exists for node1+node2 or node2+node1 otherwise false
+	 * Returns the cost between two neighboring cells in fixed-point units
+	 *
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @return cost times GridStore.COST_SCALE, INFINITY_UNITS if the edge is blocked
 	 */
-	private boolean isSet(String node1, String node2){
-		String hash1 = node1+node2;
-		String hash2 = node2+node1;
-		
-		boolean exists = false;
-		if(table.containsKey(hash1)){
-			exists = true;
-		}else if(table.containsKey(hash2)){
-			exists = true;
+	public int getUnits(int from, int to){
+		if(count > 0){
+			int slot = find(edgeKey(from, to));
+			if(keys[slot] != EMPTY){
+				return units[slot];
+			}
 		}
-		
-		return exists;
+
+		return defaultUnits(from, to);
 	}
-	
+
 	/**
-	 * Returns the value at the derived hash key
-	 * 
-	 * @param node1 label of node for part of hash key
-	 * @param node2 lable of node for part of hash key
-	 * @return  value at the given hash key, -1 if it isn't set
+	 * Checks to see if the cost of an edge has been overridden
+	 *
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @return true if setValue was called for this edge
 	 */
-	public double getValue(String node1, String node2){
-		String hash1 = node1+node2;
-		String hash2 = node2+node1;
-		
-		double value = -1;
-		boolean set = isSet(node1,node2);
-		
-		if(set){
-			if(table.containsKey(hash1)){
-				value = table.get(hash1);
-			}else if(table.containsKey(hash2)){
-				value = table.get(hash2);
-			}
+	public boolean isSet(int from, int to){
+		return count > 0 && keys[find(edgeKey(from, to))] != EMPTY;
+	}
+
+	/**
+	 * Returns the number of overridden edge costs
+	 *
+	 * @return number of stored edges
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * Works out the cost between two neighboring cells from their states
+	 *
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @return infinity if either cell is blocked, 1.4 for diagonal and 1 for straight steps
+	 */
+	public double defaultValue(int from, int to){
+		int cost = defaultUnits(from, to);
+		if(cost == INFINITY_UNITS){
+			return DstarPathFinder.INFINITY_COST;
+		}
+		if(cost == NORMAL_UNITS){
+			return DstarPathFinder.NORMAL_COST;
+		}
+
+		return DstarPathFinder.ADJACENT_COST;
+	}
+
+	/**
+	 * Works out the default cost between two neighboring cells in
+	 * fixed-point units, both getUnits and defaultValue go through it
+	 */
+	private int defaultUnits(int from, int to){
+		if(grid.getState(from) == GridStore.STATE_BLOCKED || grid.getState(to) == GridStore.STATE_BLOCKED){
+			return INFINITY_UNITS;
 		}
-		
-		return value;
+
+		int difference = from > to ? from - to : to - from;
+		if(difference == grid.getColumns() || (difference == 1 && grid.rowOf(from) == grid.rowOf(to))){
+			return NORMAL_UNITS;
+		}
+
+		return ADJACENT_UNITS;
 	}
-	
+
 	/**
-	 * Prints the cost table in no particular order
+	 * Prints the overridden costs in no particular order
 	 */
 	public void printCostTable(){
-		int count = 0;
-		for(String key: table.keySet()){
-			
-			double value = table.get(key);
-			System.out.println(count +": " + key + "=>" + String.format("% ,.1f", value));
-			count++;
+		int number = 0;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] == EMPTY){
+				continue;
+			}
+
+			int from = (int) (keys[i] >>> 32);
+			int to = (int) keys[i];
+			System.out.println(number +": " + grid.getLabel(from) + "," + grid.getLabel(to) + "=>" + String.format("% ,.1f", values[i]));
+			number++;
+		}
+	}
+
+	/**
+	 * Copies the overridden costs into arrays of at least size() entries,
+	 * in no particular order.  Each edge is copied once, smallest cell id
+	 * first
+	 *
+	 * @param from receives the first cell of each edge
+	 * @param to receives the second cell of each edge
+	 * @param costs receives the costs
+	 */
+	void copyOverrides(int[] from, int[] to, double[] costs){
+		int number = 0;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] == EMPTY){
+				continue;
+			}
+
+			from[number] = (int) (keys[i] >>> 32);
+			to[number] = (int) keys[i];
+			costs[number] = values[i];
+			number++;
+		}
+	}
+
+	/**
+	 * Rounds a cost to fixed-point units, INFINITY_COST and above to
+	 * INFINITY_UNITS
+	 */
+	static int toUnits(double cost){
+		if(cost >= DstarPathFinder.INFINITY_COST){
+			return INFINITY_UNITS;
+		}
+		return (int) Math.round(cost * GridStore.COST_SCALE);
+	}
+
+	/**
+	 * Packs two cell ids into one key, smallest id first so both
+	 * directions of an edge share the key
+	 */
+	private static long edgeKey(int from, int to){
+		if(from > to){
+			int swap = from;
+			from = to;
+			to = swap;
+		}
+		return ((long) from << 32) | (to & 0xffffffffL);
+	}
+
+	/**
+	 * Finds the slot holding the key, or the empty slot where it belongs
+	 */
+	private int find(long key){
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+
+		while(keys[slot] != EMPTY && keys[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private static int hash(long key){
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	/**
+	 * Doubles the size of the table and rehashes every entry
+	 */
+	private void grow(){
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		int[] oldUnits = units;
+
+		keys = new long[oldKeys.length * 2];
+		values = new double[oldValues.length * 2];
+		units = new int[oldUnits.length * 2];
+		Arrays.fill(keys, EMPTY);
+
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != EMPTY){
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				units[slot] = oldUnits[i];
+			}
 		}
 	}
 }
@@ -0,0 +1,141 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * A batch of cost changes, usually everything one sensor sweep revealed.
+ * Handing the whole batch to DstarPlanner.replan(batch) updates all costs
+ * first, opens every affected state once and then repairs the path in a
+ * single pass, instead of one replan per changed cell.
+ *
+ * A batch can be cleared and reused from frame to frame, it only allocates
+ * when it has to grow.
+ */
+package dstar;
+
+import java.util.Arrays;
+
+public class CostUpdateBatch {
+
+	private GridStore grid;
+
+	// cells that turned out to be obstacles
+	private int[] obstacles = new int[16];
+	private int obstacleCount = 0;
+
+	// edges that got a new cost
+	private int[] edgeFrom = new int[16];
+	private int[] edgeTo = new int[16];
+	private double[] edgeCosts = new double[16];
+	private int edgeCount = 0;
+
+	/**
+	 * Builds an empty batch for cells of the given map
+	 *
+	 * @param map map the changed cells belong to
+	 */
+	public CostUpdateBatch(DstarMap map){
+		this.grid = map.getGrid();
+	}
+
+	/**
+	 * Adds a cell that turned out to be an obstacle, every edge
+	 * around it becomes infinitely expensive
+	 *
+	 * @param row row of the obstacle
+	 * @param column column of the obstacle
+	 */
+	public void addObstacle(int row, int column){
+		checkBounds(row, column);
+
+		if(obstacleCount == obstacles.length){
+			obstacles = Arrays.copyOf(obstacles, obstacleCount * 2);
+		}
+		obstacles[obstacleCount++] = grid.cellId(row, column);
+	}
+
+	/**
+	 * Adds a new cost for the edge between two neighboring cells
+	 *
+	 * @param fromRow row of the first cell
+	 * @param fromColumn column of the first cell
+	 * @param toRow row of the second cell
+	 * @param toColumn column of the second cell
+	 * @param cost new cost of the edge, DstarPathFinder.INFINITY_COST to block it
+	 */
+	public void addEdgeCost(int fromRow, int fromColumn, int toRow, int toColumn, double cost){
+		checkBounds(fromRow, fromColumn);
+		checkBounds(toRow, toColumn);
+		if(Math.abs(fromRow - toRow) > 1 || Math.abs(fromColumn - toColumn) > 1
+				|| (fromRow == toRow && fromColumn == toColumn)){
+			throw new IllegalArgumentException("(" + fromRow + "," + fromColumn + ") and ("
+					+ toRow + "," + toColumn + ") are not neighbors");
+		}
+
+		if(edgeCount == edgeFrom.length){
+			edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+			edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+			edgeCosts = Arrays.copyOf(edgeCosts, edgeCount * 2);
+		}
+		edgeFrom[edgeCount] = grid.cellId(fromRow, fromColumn);
+		edgeTo[edgeCount] = grid.cellId(toRow, toColumn);
+		edgeCosts[edgeCount] = cost;
+		edgeCount++;
+	}
+
+	public int getObstacleCount() {
+		return obstacleCount;
+	}
+
+	/**
+	 * @param index index of the obstacle in this batch
+	 * @return cell id of the obstacle
+	 */
+	public int getObstacle(int index) {
+		return obstacles[index];
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @param index index of the edge in this batch
+	 * @return cell id of the first cell of the edge
+	 */
+	public int getEdgeFrom(int index) {
+		return edgeFrom[index];
+	}
+
+	/**
+	 * @param index index of the edge in this batch
+	 * @return cell id of the second cell of the edge
+	 */
+	public int getEdgeTo(int index) {
+		return edgeTo[index];
+	}
+
+	/**
+	 * @param index index of the edge in this batch
+	 * @return new cost of the edge
+	 */
+	public double getEdgeCost(int index) {
+		return edgeCosts[index];
+	}
+
+	public boolean isEmpty() {
+		return obstacleCount == 0 && edgeCount == 0;
+	}
+
+	/**
+	 * Empties the batch so it can be reused for the next frame
+	 */
+	public void clear() {
+		obstacleCount = 0;
+		edgeCount = 0;
+	}
+
+	private void checkBounds(int row, int column){
+		if(!grid.inBounds(row, column)){
+			throw new IndexOutOfBoundsException("(" + row + "," + column + ") is outside the map");
+		}
+	}
+}
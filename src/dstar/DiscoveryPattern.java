@@ -0,0 +1,25 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Layouts of the hidden (U) cells MapGenerator marks on a map.  Unknown
+ * cells look open to the planner until the robot is about to enter them
+ */
+package dstar;
+
+public enum DiscoveryPattern {
+
+	// no hidden cells
+	NONE,
+
+	// single hidden cells spread evenly over the open cells
+	SCATTERED,
+
+	// round patches of hidden cells
+	CLUSTERS,
+
+	// hidden walls across the line from start to goal, each with one gap
+	WALLS,
+
+	// hidden cells on the shortest known path, found one after another
+	ON_PATH
+}
@@ -0,0 +1,516 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * DstarLitePathFinder implements D* Lite, an alternative to the D* algorithm
+ * in DstarPathFinder that reads the same DstarMap.
+ *
+ * Based on the optimized version of the algorithm in the paper
+ *
+ * "D* Lite" by Sven Koenig and Maxim Likhachev
+ *
+ * Every state keeps g (its cost to the goal) and rhs (a one step lookahead
+ * of g).  States where the two differ are on the open list, ordered by
+ * [min(g, rhs) + h(robot, state) + km ; min(g, rhs)].  When the robot moves,
+ * km grows instead of re-keying the whole open list.
+ *
+ * The search state lives in a GridStore of its own that shares the cell
+ * states of the map: h holds g, k holds rhs.  Cells with a NEW tag have not
+ * been touched yet and have g = rhs = infinity.
+ */
+package dstar;
+
+import java.util.Arrays;
+
+public class DstarLitePathFinder implements DstarPlanner {
+
+	// g and rhs of states that can't reach the goal
+	private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+	// sums of costs are rounded to this many steps per unit of cost.  Adding
+	// 1.4 steps in a different order gives results a few bits apart, which
+	// breaks ties between keys that are really equal and leaves states
+	// the robot's path goes through inconsistent
+	private static final double ROUNDING = 1e6;
+
+	private DstarMap map;
+	private GridStore grid;
+	private CostTable costs;
+	private OpenList openList;
+
+	private int goal;
+	private int currentRobotPosition;
+	private int robotRow;
+	private int robotColumn;
+
+	// robot position at the last replan, and the key modifier
+	private int lastPosition;
+	private double km = 0;
+
+	// set by reportObstacle, cleared by replan
+	private boolean replanPending = false;
+
+	private PlannerListener listener;
+	private long expansions = 0;
+
+	// optional metrics, the statistics are counted either way
+	private PlannerMetrics metrics;
+	private PlanStatistics statistics = new PlanStatistics();
+
+	// reusable neighbor buffers, the outer one for the expanded state
+	// and the inner one to work out rhs of its neighbors
+	private int[] neighbors = new int[8];
+	private int[] successors = new int[8];
+
+	/**
+	 * Default constructor, uses an indexed heap for the open list
+	 *
+	 * @param map a valid DstarMap
+	 */
+	public DstarLitePathFinder(DstarMap map){
+		this(map, OpenListType.INDEXED_HEAP);
+	}
+
+	/**
+	 * Builds a D* Lite path finder with the given open list implementation
+	 *
+	 * @param map a valid DstarMap
+	 * @param openListType open list implementation to use
+	 */
+	public DstarLitePathFinder(DstarMap map, OpenListType openListType){
+		this.map = map;
+		this.grid = map.getGrid().newSearchStore();
+		this.costs = new CostTable(grid);
+		this.openList = openListType.create(grid.size());
+
+		goal = map.getGoalId();
+		currentRobotPosition = map.getRobotId();
+		robotRow = grid.rowOf(currentRobotPosition);
+		robotColumn = grid.columnOf(currentRobotPosition);
+		lastPosition = currentRobotPosition;
+	}
+
+	public PlanResult computeInitialPlan(){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		// the goal is the only state with a known rhs
+		setRhs(goal, 0);
+		openList.add(goal, heuristic(goal), 0);
+		grid.setTag(goal, GridStore.TAG_OPEN);
+
+		if(listener != null){
+			listener.planStarted(this);
+		}
+
+		computeShortestPath();
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(true, result);
+		if(listener != null){
+			listener.initialPlanComputed(this, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sets the costs of every edge around the obstacle to infinity and
+	 * updates the states whose rhs depended on them
+	 */
+	public void reportObstacle(int row, int column){
+		int cell = grid.cellId(row, column);
+
+		startCostChange();
+		int count = blockCell(cell);
+
+		updateChangedVertex(cell);
+		for(int i = 0; i < count; i++){
+			updateChangedVertex(neighbors[i]);
+		}
+
+		if(listener != null){
+			listener.obstacleReported(this, cell);
+		}
+	}
+
+	/**
+	 * Changes every cost of the batch first, then updates each state whose
+	 * rhs may have changed exactly once
+	 */
+	public PlanResult replan(CostUpdateBatch batch){
+		if(!batch.isEmpty()){
+			startCostChange();
+
+			// collect every state next to a changed edge
+			int[] affected = new int[batch.getObstacleCount() * 9 + batch.getEdgeCount() * 2];
+			int affectedCount = 0;
+
+			for(int i = 0; i < batch.getObstacleCount(); i++){
+				int cell = batch.getObstacle(i);
+				int count = blockCell(cell);
+
+				affected[affectedCount++] = cell;
+				for(int j = 0; j < count; j++){
+					affected[affectedCount++] = neighbors[j];
+				}
+
+				if(listener != null){
+					listener.obstacleReported(this, cell);
+				}
+			}
+
+			for(int i = 0; i < batch.getEdgeCount(); i++){
+				int from = batch.getEdgeFrom(i);
+				int to = batch.getEdgeTo(i);
+				costs.setValue(from, to, batch.getEdgeCost(i));
+
+				affected[affectedCount++] = from;
+				affected[affectedCount++] = to;
+			}
+
+			// sorting puts duplicates next to each other
+			Arrays.sort(affected, 0, affectedCount);
+			for(int i = 0; i < affectedCount; i++){
+				if(i == 0 || affected[i] != affected[i - 1]){
+					updateChangedVertex(affected[i]);
+				}
+			}
+		}
+
+		return replan();
+	}
+
+	public PlanResult replan(){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		if(replanPending){
+			computeShortestPath();
+			replanPending = false;
+		}
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(false, result);
+		if(listener != null){
+			listener.replanned(this, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The next waypoint is the neighbor that minimizes the edge cost plus g
+	 */
+	public Waypoint nextWaypoint(){
+		int here = currentRobotPosition;
+
+		if(here == goal){
+			return waypoint(Waypoint.Status.GOAL_REACHED, here);
+		}
+		if(!isReachable()){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+
+		int best = GridStore.NO_CELL;
+		double bestCost = INFINITY;
+		int count = map.getNeighbors(here, neighbors);
+		for(int i = 0; i < count; i++){
+			double cost = round(edgeCost(here, neighbors[i]) + g(neighbors[i]));
+			if(cost < bestCost){
+				bestCost = cost;
+				best = neighbors[i];
+			}
+		}
+
+		if(best == GridStore.NO_CELL){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+
+		grid.setBackPointer(here, best);
+		return waypoint(Waypoint.Status.MOVE, best);
+	}
+
+	public void moveRobot(int row, int column){
+		robotRow = row;
+		robotColumn = column;
+		currentRobotPosition = grid.cellId(row, column);
+		map.setRobotLocation(currentRobotPosition);
+
+		if(listener != null){
+			listener.robotMoved(this, currentRobotPosition);
+		}
+	}
+
+	public long getExpansions(){
+		return expansions;
+	}
+
+	public DstarMap getMap(){
+		return map;
+	}
+
+	public void setListener(PlannerListener listener){
+		this.listener = listener;
+	}
+
+	public void setMetrics(PlannerMetrics metrics){
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the search state of this planner, h holds g and k holds rhs
+	 *
+	 * @return grid store of this planner
+	 */
+	public GridStore getGrid(){
+		return grid;
+	}
+
+	/**
+	 * Called before costs change.  Keys on the open list were worked out
+	 * from the robot position at the last change, km makes up for the
+	 * distance moved since then
+	 */
+	private void startCostChange(){
+		if(!replanPending){
+			km = round(km + octileDistance(lastPosition, currentRobotPosition));
+			lastPosition = currentRobotPosition;
+			replanPending = true;
+		}
+	}
+
+	/**
+	 * Sets the cost of every edge around a cell to infinity
+	 *
+	 * @param cell cell id of the obstacle
+	 * @return number of neighbors of the cell, left in the neighbors buffer
+	 */
+	private int blockCell(int cell){
+		int count = map.getNeighbors(cell, neighbors);
+		for(int i = 0; i < count; i++){
+			costs.setValue(cell, neighbors[i], DstarPathFinder.INFINITY_COST);
+		}
+		return count;
+	}
+
+	/**
+	 * Expands states until the robot's state is consistent and no state
+	 * on the open list has a smaller key than the robot
+	 */
+	private void computeShortestPath(){
+		int robot = currentRobotPosition;
+
+		while(!openList.isEmpty()){
+			double robotKey = keyOf(robot);
+			double robotSecondKey = Math.min(g(robot), rhs(robot));
+			double topKey = openList.peekKey();
+			double topSecondKey = openList.peekSecondKey();
+
+			boolean topBelowRobot = topKey < robotKey || (topKey == robotKey && topSecondKey < robotSecondKey);
+			if(!topBelowRobot && rhs(robot) <= g(robot)){
+				break;
+			}
+
+			int u = openList.peek();
+			double newKey = keyOf(u);
+			double newSecondKey = Math.min(g(u), rhs(u));
+
+			if(topKey < newKey || (topKey == newKey && topSecondKey < newSecondKey)){
+				// key is out of date because the robot moved
+				openList.add(u, newKey, newSecondKey);
+				continue;
+			}
+
+			openList.poll();
+			grid.setTag(u, GridStore.TAG_CLOSED);
+			expansions++;
+
+			int count = map.getNeighbors(u, neighbors);
+			if(g(u) > rhs(u)){
+				// overconsistent, lower g and pass it on to the neighbors
+				statistics.lowerExpansions++;
+				setG(u, rhs(u));
+				for(int i = 0; i < count; i++){
+					int s = neighbors[i];
+					if(s != goal){
+						double cost = round(edgeCost(s, u) + g(u));
+						if(cost < rhs(s)){
+							setRhs(s, cost);
+						}
+						updateVertex(s);
+					}
+				}
+			}else{
+				// underconsistent, raise g and recompute whoever went through u
+				statistics.raiseExpansions++;
+				double oldG = g(u);
+				setG(u, INFINITY);
+				for(int i = 0; i < count; i++){
+					int s = neighbors[i];
+					if(s != goal && rhs(s) == round(edgeCost(s, u) + oldG)){
+						updateRhs(s);
+					}
+					updateVertex(s);
+				}
+				if(u != goal){
+					updateRhs(u);
+				}
+				updateVertex(u);
+			}
+
+			if(listener != null){
+				listener.stateExpanded(this, u);
+			}
+		}
+	}
+
+	/**
+	 * Puts a state on the open list if g and rhs differ, takes it off otherwise
+	 */
+	private void updateVertex(int u){
+		boolean inconsistent = g(u) != rhs(u);
+
+		if(inconsistent){
+			openList.add(u, keyOf(u), Math.min(g(u), rhs(u)));
+			grid.setTag(u, GridStore.TAG_OPEN);
+
+			statistics.inserts++;
+			if(openList.size() > statistics.openListPeak){
+				statistics.openListPeak = openList.size();
+			}
+		}else if(openList.remove(u)){
+			grid.setTag(u, GridStore.TAG_CLOSED);
+		}
+	}
+
+	/**
+	 * Updates a state next to a changed cost, counting it if the change
+	 * put an expanded state back on the open list
+	 */
+	private void updateChangedVertex(int u){
+		boolean closed = grid.getTag(u) == GridStore.TAG_CLOSED;
+		updateRhs(u);
+		updateVertex(u);
+		if(closed && grid.getTag(u) == GridStore.TAG_OPEN){
+			statistics.reopenedStates++;
+		}
+	}
+
+	/**
+	 * Recomputes rhs of a state as the cheapest edge plus g over its neighbors
+	 */
+	private void updateRhs(int s){
+		if(s == goal){
+			return;
+		}
+
+		double best = INFINITY;
+		int count = map.getNeighbors(s, successors);
+		for(int i = 0; i < count; i++){
+			double cost = round(edgeCost(s, successors[i]) + g(successors[i]));
+			if(cost < best){
+				best = cost;
+			}
+		}
+		setRhs(s, best);
+	}
+
+	/**
+	 * Edge costs of infinity or more mean there is no edge at all
+	 */
+	private double edgeCost(int from, int to){
+		double cost = costs.getValue(from, to);
+		if(cost >= DstarPathFinder.INFINITY_COST){
+			return INFINITY;
+		}
+		return cost;
+	}
+
+	private double keyOf(int s){
+		return round(Math.min(g(s), rhs(s)) + heuristic(s) + km);
+	}
+
+	private double heuristic(int s){
+		return octileDistance(s, currentRobotPosition);
+	}
+
+	/**
+	 * Octile distance between two cells, the cost of the cheapest path
+	 * between them if the map had no obstacles
+	 */
+	private double octileDistance(int from, int to){
+		int rows = Math.abs(grid.rowOf(from) - grid.rowOf(to));
+		int columns = Math.abs(grid.columnOf(from) - grid.columnOf(to));
+		int diagonal = Math.min(rows, columns);
+
+		return round(DstarPathFinder.ADJACENT_COST * diagonal + DstarPathFinder.NORMAL_COST * (Math.max(rows, columns) - diagonal));
+	}
+
+	/**
+	 * Rounds a sum of costs, infinity stays infinity
+	 */
+	private static double round(double cost){
+		return Math.rint(cost * ROUNDING) / ROUNDING;
+	}
+
+	private double g(int s){
+		return grid.getTag(s) == GridStore.TAG_NEW ? INFINITY : grid.getH(s);
+	}
+
+	private double rhs(int s){
+		return grid.getTag(s) == GridStore.TAG_NEW ? INFINITY : grid.getK(s);
+	}
+
+	private void setG(int s, double value){
+		touch(s);
+		grid.setH(s, value);
+	}
+
+	private void setRhs(int s, double value){
+		touch(s);
+		grid.setK(s, value);
+	}
+
+	/**
+	 * A NEW state becomes CLOSED with g = rhs = infinity the first time it is written
+	 */
+	private void touch(int s){
+		if(grid.getTag(s) == GridStore.TAG_NEW){
+			grid.setH(s, INFINITY);
+			grid.setK(s, INFINITY);
+			grid.setTag(s, GridStore.TAG_CLOSED);
+		}
+	}
+
+	/**
+	 * The robot's own g can stay out of date once the search stops, the
+	 * path goes through its neighbors so rhs is the cost that counts
+	 */
+	private boolean isReachable(){
+		return rhs(currentRobotPosition) < INFINITY;
+	}
+
+	/**
+	 * Hands the statistics of a plan to the metrics and starts counting
+	 * for the next one
+	 */
+	private void reportStatistics(boolean initialPlan, PlanResult result){
+		if(metrics != null){
+			statistics.elapsedNanos = result.getElapsedNanos();
+			statistics.expansions = result.getExpansions();
+			statistics.reachable = result.isReachable();
+			metrics.planFinished(this, initialPlan, statistics);
+		}
+		statistics.reset(openList.size());
+	}
+
+	private PlanResult buildResult(long startTime, long startExpansions){
+		PlanResult.Status status = isReachable() ? PlanResult.Status.PLANNED : PlanResult.Status.UNREACHABLE;
+		return new PlanResult(status, expansions - startExpansions, System.nanoTime() - startTime,
+				status == PlanResult.Status.PLANNED ? rhs(currentRobotPosition) : DstarPathFinder.INFINITY_COST);
+	}
+
+	private Waypoint waypoint(Waypoint.Status status, int cell){
+		return new Waypoint(status, cell, grid.rowOf(cell), grid.columnOf(cell), grid.getState(cell));
+	}
+}
@@ -14,17 +14,48 @@ import java.util.ArrayList;
 
 public class DstarMap {
 	
+	// row and column offsets of the neighbors, in the order getNeighbors returns them
+	private static final int[] NEIGHBOR_ROWS = {-1, 1, 0, 0, -1, 1, 1, -1};
+	private static final int[] NEIGHBOR_COLUMNS = {0, 0, 1, -1, 1, -1, 1, -1};
+	
+	// which borders a cell is on, combined into an index into NEIGHBOR_MASKS
+	private static final int TOP = 1;
+	private static final int BOTTOM = 2;
+	private static final int LEFT = 4;
+	private static final int RIGHT = 8;
+	
+	// for every combination of borders, one bit per neighbor that is inside
+	// the map, bit i standing for offset i of NEIGHBOR_ROWS and NEIGHBOR_COLUMNS
+	private static final int[] NEIGHBOR_MASKS = new int[16];
+	
+	static {
+		for(int border = 0; border < NEIGHBOR_MASKS.length; border++){
+			for(int i = 0; i < NEIGHBOR_ROWS.length; i++){
+				boolean outside = (NEIGHBOR_ROWS[i] < 0 && (border & TOP) != 0)
+						|| (NEIGHBOR_ROWS[i] > 0 && (border & BOTTOM) != 0)
+						|| (NEIGHBOR_COLUMNS[i] < 0 && (border & LEFT) != 0)
+						|| (NEIGHBOR_COLUMNS[i] > 0 && (border & RIGHT) != 0);
+				if(!outside){
+					NEIGHBOR_MASKS[border] |= 1 << i;
+				}
+			}
+		}
+	}
+	
 	// number of columns and rows for this map
 	private int rows = 0;
 	private int columns = 0;
 	
-	// provides start, goal, and robotLocation states
-	private DstarNode start;
-	private DstarNode goal;
-	private DstarNode robotLocation;
+	// provides start, goal, and robotLocation states as cell ids
+	private int start = GridStore.NO_CELL;
+	private int goal = GridStore.NO_CELL;
+	private int robotLocation = GridStore.NO_CELL;
+	
+	// map state is kept in parallel arrays, DstarNodes are only views
+	private GridStore grid; 
 	
-	// map is implemented and a 2D array of DstarNodes
-	private DstarNode[][] map; 
+	// cell id offsets of the neighbors, in the order getNeighbors returns them
+	private int[] neighborOffsets = new int[NEIGHBOR_ROWS.length];
 	
 	/**
 	 * Builds a map with the given rows and columns
@@ -36,9 +67,24 @@ public class DstarMap {
 		this.rows = rows;
 		this.columns = columns;
 		
-		map = new DstarNode[rows][columns];
+		grid = new GridStore(rows, columns);
+		computeNeighborOffsets();
 	}
-	
+
+	/**
+	 * Builds a map on top of an existing grid store, for example a
+	 * TiledGridStore for maps too large to keep in dense arrays
+	 *
+	 * @param grid store holding the cells of the map
+	 */
+	public DstarMap(GridStore grid) {
+		this.rows = grid.getRows();
+		this.columns = grid.getColumns();
+
+		this.grid = grid;
+		computeNeighborOffsets();
+	}
+
 	/**
 	 * Returns the number of rows in the map
 	 * 
@@ -57,6 +103,15 @@ public class DstarMap {
 	}
 
 	
+	/**
+	 * Returns the grid store holding the state of every cell
+	 * 
+	 * @return the grid store of this map
+	 */
+	public GridStore getGrid() {
+		return grid;
+	}
+	
 	/**
 	 * Gets the DstarNode at postion (row,column)
 	 * @param row
@@ -64,7 +119,20 @@ public class DstarMap {
 	 * @return
 	 */
 	public DstarNode getNode(int row, int column){
-		return map[row][column];
+		return new DstarNode(grid, grid.cellId(row, column));
+	}
+	
+	/**
+	 * Returns a view of the cell with the given id, null for NO_CELL
+	 * 
+	 * @param id cell id
+	 * @return node view of the cell
+	 */
+	public DstarNode getNode(int id){
+		if(id == GridStore.NO_CELL){
+			return null;
+		}
+		return new DstarNode(grid, id);
 	}
 	
 	/**
@@ -73,6 +141,15 @@ public class DstarMap {
 	 * @return
 	 */
 	public DstarNode getStart() {
+		return getNode(start);
+	}
+	
+	/**
+	 * Returns the cell id of the start state
+	 * 
+	 * @return
+	 */
+	public int getStartId() {
 		return start;
 	}
 
@@ -84,7 +161,7 @@ public class DstarMap {
 	 * @param y
 	 */
 	public void setStart(int x, int y) {
-		this.start = getNode(x,y);
+		this.start = grid.cellId(x,y);
 	}
 
 	/**
@@ -93,6 +170,15 @@ public class DstarMap {
 	 * @return
 	 */
 	public DstarNode getGoal() {
+		return getNode(goal);
+	}
+	
+	/**
+	 * Returns the cell id of the goal state
+	 * 
+	 * @return
+	 */
+	public int getGoalId() {
 		return goal;
 	}
 
@@ -105,9 +191,9 @@ public class DstarMap {
 	 * @param y
 	 */
 	public void setGoal(int x, int y) {
-		this.goal = getNode(x,y);
-		this.goal.setK(0);
-		this.goal.setH(0);
+		this.goal = grid.cellId(x,y);
+		grid.setK(goal, 0);
+		grid.setH(goal, 0);
 	}
 	
 	/**
@@ -116,6 +202,15 @@ public class DstarMap {
 	 * @return the node where the robot is located
 	 */
 	public DstarNode getRobotLocation() {
+		return getNode(robotLocation);
+	}
+	
+	/**
+	 * Returns the cell id where the robot is located
+	 * 
+	 * @return cell id of the robot
+	 */
+	public int getRobotId() {
 		return robotLocation;
 	}
 
@@ -126,9 +221,31 @@ public class DstarMap {
 	 * 
 	 */
 	public void setRobotLocation(DstarNode robotLocation) {
+		this.robotLocation = robotLocation.getId();
+	}
+	
+	/**
+	 * Sets the robots position by cell id
+	 * 
+	 * @param robotLocation cell id where the robot is located
+	 */
+	public void setRobotLocation(int robotLocation) {
 		this.robotLocation = robotLocation;
 	}
 	
+	/**
+	 * Sets the start and goal cells of a freshly loaded or generated map
+	 * and places the robot on the start cell
+	 * 
+	 * @param start cell id of the start state
+	 * @param goal cell id of the goal state
+	 */
+	public void setEndpoints(int start, int goal) {
+		this.start = start;
+		this.goal = goal;
+		this.robotLocation = start;
+	}
+	
 	/**
 	 * Returns list of neighbors for a node at a given position
 	 * 
@@ -198,6 +315,55 @@ public class DstarMap {
 		return neighborList;
 	}
 	
+	/**
+	 * Fills the given buffer with the cell ids of the neighbors of a cell.
+	 * The neighbors are returned in the same order as getNeighbors(row, col).
+	 * Nothing is allocated: neighbor ids are the cell id plus offsets worked
+	 * out with the map, and only cells on the border of the map look up
+	 * which of their neighbors are inside it
+	 * 
+	 * @param id cell id
+	 * @param neighbors buffer of at least 8 entries
+	 * @return number of neighbors written to the buffer
+	 */
+	public int getNeighbors(int id, int[] neighbors){
+		int row = id / columns;
+		int col = id - row * columns;
+		int[] offsets = neighborOffsets;
+		
+		int border = (row == 0 ? TOP : 0) | (row == rows - 1 ? BOTTOM : 0)
+				| (col == 0 ? LEFT : 0) | (col == columns - 1 ? RIGHT : 0);
+		
+		// cells off the border have all 8 neighbors, no bounds to check
+		if(border == 0){
+			neighbors[0] = id + offsets[0];
+			neighbors[1] = id + offsets[1];
+			neighbors[2] = id + offsets[2];
+			neighbors[3] = id + offsets[3];
+			neighbors[4] = id + offsets[4];
+			neighbors[5] = id + offsets[5];
+			neighbors[6] = id + offsets[6];
+			neighbors[7] = id + offsets[7];
+			return 8;
+		}
+		
+		int mask = NEIGHBOR_MASKS[border];
+		int count = 0;
+		for(int i = 0; i < offsets.length; i++){
+			if((mask & (1 << i)) != 0){
+				neighbors[count++] = id + offsets[i];
+			}
+		}
+		
+		return count;
+	}
+	
+	private void computeNeighborOffsets(){
+		for(int i = 0; i < NEIGHBOR_ROWS.length; i++){
+			neighborOffsets[i] = NEIGHBOR_ROWS[i] * columns + NEIGHBOR_COLUMNS[i];
+		}
+	}
+	
 	/**
 	 * Check to see if the given row and column are out of bounds on the map
 	 * 
@@ -218,7 +384,10 @@ public class DstarMap {
 	
 	
 	/**
-	 * Load map file
+	 * Load map file into a map of the size given to the constructor.
+	 * 
+	 * MapLoader.load(filename) works out the size from the file and
+	 * reports malformed maps, use it for large or untrusted maps
 	 */
 	public void loadMap(String filename){
 		int row = 0;
@@ -234,8 +403,8 @@ public class DstarMap {
 					while((read = in.read()) != -1){
 						char c = (char) read;
 						if(c == 'O' || c == 'B' || c == 'U' || c == 'S' || c == 'G'){
-							DstarNode node = new DstarNode(row,column);
-							node.setTag("NEW");
+							int node = grid.cellId(row,column);
+							grid.setTag(node, GridStore.TAG_NEW);
 							
 							char state = c;
 							if(c == 'S'){
@@ -246,8 +415,7 @@ public class DstarMap {
 								goal = node;
 							}
 							
-							node.setState(String.valueOf(state));
-							map[row][column] = node;
+							grid.setState(node, (byte) state);
 							column++;
 						}else{
 							row++;
@@ -273,104 +441,10 @@ public class DstarMap {
 	}
 	
 	/**
-	 * Prints the maps current state
+	 * Prints the maps current state, see MapRenderer for viewports and
+	 * printing only what changed
 	 */
 	public void print(){
-		
-		int cell_column_count = 15;
-		int row_column_count = cell_column_count * this.columns;
-		
-		char space = ' ';
-		char row_seperator_char = '-';
-		
-		String row_seperator = repeatChar(row_seperator_char,row_column_count + 1);
-		String cr1; // cell row 1
-		String cr2; // cell row 2
-		String cr3; // cell row 3
-		String cr4; // cell row 4
-		String cr5; // cell row 5
-		String cr6; // cell row 6
-		
-		// loop through rows
-		for(int i=0; i < map.length; i++){
-			// new row, reinitialize cell row strings
-			cr1 = "";
-			cr2 = "";
-			cr3 = "";
-			cr4 = "";
-			cr5 = "";
-			cr6 = "";
-			
-			// loop through cells and concatenate values to cell row strings
-			for(int j=0; j < map[i].length; j++){
-				DstarNode node = getNode(i,j);
-				
-				String startOrGoal = " ";
-				if(node == start){
-					startOrGoal = "S";
-				}else if(node == goal){
-					startOrGoal = "G";
-				}
-				
-				String robot = "   ";
-				if(node == robotLocation){
-					robot = "(*)";
-				}
-				
-				String tag = node.getTag();
-				String state = node.getState();
-				String label = node.getLabel();
-				String hval = "h:" + String.format("% ,.1f", node.getH());
-				String kval = "k:" + String.format("% ,.1f", node.getK());
-				
-				String bp = "";
-				if(node.getBackPointer() == null){
-					bp = "b: " + repeatChar(space,11);
-				}else{
-					bp = "b: " + node.getBackPointer().getLabel() + repeatChar(space,9);
-				}
-				
-				cr1 += "|" + tag + repeatChar(space, 14 - tag.length() - state.length()) + state;
-				cr2 += "|" + label + repeatChar(space, 14 - label.length());
-				cr3 += "|" + hval + repeatChar(space, 14 - hval.length());
-				cr4 += "|" + kval + repeatChar(space, 14 - kval.length());
-				cr5 += "|" + bp;
-				
-				cr6 += "|" + repeatChar(space,5) + robot + repeatChar(space,5) + startOrGoal;
-				
-			}
-			// close the row lines with |
-			cr1 += "|";
-			cr2 += "|";
-			cr3 += "|";
-			cr4 += "|";
-			cr5 += "|";
-			cr6 += "|";
-			
-			System.out.println(row_seperator);
-			System.out.println(cr1);
-			System.out.println(cr2);
-			System.out.println(cr3);
-			System.out.println(cr4);
-			System.out.println(cr5);
-			System.out.println(cr6);;
-		}
-		
-		System.out.println(row_seperator);
-	}
-	
-	private String repeatChar(char c, int num){
-		String repeated = "";
-		if(num > 0){
-			repeated = new String(new char[num]).replace('\0', c);
-		}
-		
-		return repeated;
+		new MapRenderer(this).render();
 	}
-
-	
-
-	
-	
-
 }
@@ -1,102 +1,109 @@
 package dstar;
 
-import java.util.ArrayList;
-
+/**
+ * Lightweight view onto one cell of a GridStore.  The node itself only
+ * holds the store and the cell id, all values are read from and written
+ * to the store, so views can be created and thrown away freely.
+ */
 public class DstarNode implements Comparable<DstarNode>{
 
-	// Node Tag
-	private String tag = "NEW";
-	private String state = "O";
-	private String label = "";
-	
-	private int row;
-	private int column;
-	
-	private double h;	// current cost to goal from this node
-	private double k;	// lowest value of h that this node has seen
-	//private ArrayList<DstarNode> neighborList; 
-
-	private DstarNode backPointer;
-	
-	public DstarNode(int row, int column){
-		
-		// let this column know where it is at
-		this.row = row;
-		this.column = column;
-		
-		// concatenate row and column to generate the label
-		// label will be used as a key in the cost hashtable
-		this.setLabel(Integer.toString(row) + Integer.toString(column));
-		
-		this.h = 0;
-		this.k = 0;
-		setBackPointer(null);
-		//neighborList = new ArrayList<DstarNode>();
+	private GridStore store;
+	private int id;
+
+	public DstarNode(GridStore store, int id){
+		this.store = store;
+		this.id = id;
+	}
+
+	/**
+	 * Returns the cell id of this node in its store
+	 *
+	 * @return cell id
+	 */
+	public int getId() {
+		return id;
 	}
 
 	public DstarNode getBackPointer() {
-		return backPointer;
+		int pointer = store.getBackPointer(id);
+		if(pointer == GridStore.NO_CELL){
+			return null;
+		}
+		return new DstarNode(store, pointer);
 	}
 
 	public void setBackPointer(DstarNode backPointer) {
-		this.backPointer = backPointer;
+		if(backPointer == null){
+			store.setBackPointer(id, GridStore.NO_CELL);
+		}else{
+			store.setBackPointer(id, backPointer.id);
+		}
 	}
 
-	/*
-	public void addNeighbor(DstarNode neighbor){
-		neighborList.add(neighbor);
-	}
-	*/
-	
 	public int getRow() {
-		return row;
+		return store.rowOf(id);
 	}
 
 	public int getColumn() {
-		return column;
+		return store.columnOf(id);
 	}
-	
+
 	public double getH() {
-		return h;
+		return store.getH(id);
 	}
 
 	public void setH(double h) {
-		this.h = h;
+		store.setH(id, h);
 	}
 
 	public double getK() {
-		return k;
+		return store.getK(id);
 	}
 
 	public void setK(double k) {
-		this.k = k;
+		store.setK(id, k);
 	}
 
 	public String getTag() {
-		return tag;
+		return GridStore.tagName(store.getTag(id));
 	}
 
 	public void setTag(String tag) {
-		this.tag = tag;
+		store.setTag(id, GridStore.tagValue(tag));
 	}
 
 	public String getState() {
-		return state;
+		return String.valueOf((char) store.getState(id));
 	}
 
 	public void setState(String state) {
-		this.state = state;
+		store.setState(id, (byte) state.charAt(0));
 	}
-	
+
+	/**
+	 * The label is the row concatenated with the column
+	 *
+	 * @return label of this node
+	 */
 	public String getLabel() {
-		return label;
+		return store.getLabel(id);
 	}
 
-	public void setLabel(String label) {
-		this.label = label;
+	/**
+	 * Two views are equal when they look at the same cell of the same store
+	 */
+	public boolean equals(Object o) {
+		if(!(o instanceof DstarNode)){
+			return false;
+		}
+		DstarNode other = (DstarNode) o;
+		return other.store == store && other.id == id;
+	}
+
+	public int hashCode() {
+		return id;
 	}
 
-	
 	/**
 	 * Parameters:
 	 * o - the object to be compared.
@@ -106,21 +113,18 @@ public class DstarNode implements Comparable<DstarNode>{
 	public int compareTo(DstarNode o) {
 
 		int compare;
-		
-		if(this.k < o.k){
+		double k = getK();
+		double otherK = o.getK();
+
+		if(k < otherK){
 			compare = -1;
-		}else if(this.k > o.k){
+		}else if(k > otherK){
 			compare = 1;
 		}else{
 			compare = 0;
 		}
-		
+
 		return compare;
 	}
 
-	
-
-
-	
-	
 }
@@ -10,284 +10,918 @@
  * "Optimal and Efficient Path Planning for Paritally-Known Environment"
  * by Anthony Stentz
  * 
+ * The path finder is headless, see DstarPlanner.  traverseMap() runs the
+ * interactive console walkthrough on top of it.
  * 
  */
 package dstar;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.PriorityQueue;
 
-public class DstarPathFinder {
+public class DstarPathFinder implements DstarPlanner {
 
-	// Define constant values for path costs
+	// Define constant values for path costs.  An edge costing INFINITY_COST
+	// or more is blocked, path costs are not capped by it
 	public static final double NORMAL_COST = 1.0;
 	public static final double ADJACENT_COST = 1.4;
 	public static final double INFINITY_COST = 10000;
 	
+	// the search works on costs in fixed-point units (GridStore.COST_SCALE),
+	// sums of steps are exact and need no rounding
+	private static final int NORMAL_UNITS = CostTable.NORMAL_UNITS;
+	private static final int ADJACENT_UNITS = CostTable.ADJACENT_UNITS;
+	private static final int INFINITY_UNITS = CostTable.INFINITY_UNITS;
+	
+	// returned by processState() once the open list is empty
+	private static final int NO_KEY = -1;
+	
+	// partialKey while no plan has run out of budget
+	private static final int PLAN_NOT_STARTED = -2;
+	
 	// define cost table object
 	private CostTable costs;
 	// define map object
 	private DstarMap map;
-	// define open list data structure
-	private PriorityQueue<DstarNode> openList;
+	// per cell state of the map, the path finder works on cell ids
+	private GridStore grid;
+	// define open list data structure, holds cell ids ordered by k
+	private OpenList openList;
 	
-	// provide DstarNode objects for local storage
+	// provide cell ids for local storage
 	// of start, goal, and currentRobotPosition states
-	private DstarNode start;
-	private DstarNode goal;
-	private DstarNode currentRobotPosition;
+	private int start;
+	private int goal;
+	private int currentRobotPosition;
+	
+	// reusable neighbor buffer
+	private int[] neighbors = new int[8];
+	
+	// optional listener, told about every planner event
+	private PlannerListener listener;
+	
+	// number of states expanded so far
+	private long expansions = 0;
+	
+	// optional metrics, told about every plan.  The statistics are
+	// counted either way and cleared after each plan
+	private PlannerMetrics metrics;
+	private PlanStatistics statistics = new PlanStatistics();
+	
+	// Focused D*: open list keys are biased by the octile distance to the
+	// robot, plus the distance the robot has moved since the search started
+	private boolean focused;
+	private int robotRow;
+	private int robotColumn;
+	private int accumulatedBias = 0;
+	
+	// set when costs changed, replan() processes states until the
+	// path from the robot is repaired
+	private boolean replanPending = false;
+	
+	// open states with a k below infinity.  Only these can lower a state,
+	// a robot raised to infinity is cut off once none are left
+	private int finiteOpenStates = 0;
+	
+	// set once the goal is on the open list until the robot is reached
+	private boolean initialPlanPending = false;
+	
+	// key of the last state processed by a plan that ran out of budget,
+	// the next step carries on from there.  PLAN_NOT_STARTED otherwise
+	private int partialKey = PLAN_NOT_STARTED;
+	// expansions and time of the earlier steps of a partial plan
+	private long partialExpansions = 0;
+	private long partialNanos = 0;
+	// path the robot had when a budgeted replan started, followed while
+	// the replan is partial.  heldOffset is the robot's place on it
+	private int[] heldPath;
+	private int heldOffset = 0;
+	
+	// robot's path as returned by getPath(), null until it is asked for
+	// or after the search wrote the h or back pointer of one of its cells.
+	// pathCells holds the same cells sorted, pathOffset counts the cells
+	// the robot moved along since the path was worked out
+	private int[] path;
+	private int[] pathCells;
+	private int pathOffset = 0;
+	
+	// robots of a FleetPlanner sharing this search, null when the path
+	// finder only plans for its own robot
+	private FleetPlanner fleet;
 	
 	/**
-	 * Default constructor 
+	 * Default constructor, uses an indexed heap for the open list
 	 * 	
 	 * @param map a valid DstarMap
 	 */
 	public DstarPathFinder(DstarMap map){
+		this(map, OpenListType.INDEXED_HEAP);
+	}
+	
+	/**
+	 * Builds a path finder with the given open list implementation
+	 * 
+	 * @param map a valid DstarMap
+	 * @param openListType open list implementation to use
+	 */
+	public DstarPathFinder(DstarMap map, OpenListType openListType){
+		this(map, openListType, SearchMode.BASIC);
+	}
+	
+	/**
+	 * Builds a path finder with the given open list implementation and
+	 * search mode
+	 * 
+	 * @param map a valid DstarMap
+	 * @param openListType open list implementation to use
+	 * @param searchMode BASIC for plain D*, FOCUSED for Focused D*
+	 */
+	public DstarPathFinder(DstarMap map, OpenListType openListType, SearchMode searchMode){
 		
-		costs = new CostTable();
-		openList = new PriorityQueue<DstarNode>();
 		this.map = map;
+		this.focused = searchMode == SearchMode.FOCUSED;
+		this.grid = map.getGrid();
+		costs = new CostTable(grid);
+		
+		openList = openListType.create(grid.size());
 		
-		start = map.getStart();
-		currentRobotPosition = map.getRobotLocation();
-		goal = map.getGoal();
+		start = map.getStartId();
+		currentRobotPosition = map.getRobotId();
+		goal = map.getGoalId();
 		
-		buildCostTable();
+		robotRow = grid.rowOf(currentRobotPosition);
+		robotColumn = grid.columnOf(currentRobotPosition);
 	}
 	
 	/**
-	 * Call traverseMap to find the optimal path
+	 * Expands the map from the goal until the robot's state is closed
+	 * or the open list runs out
+	 * 
+	 * @return result of the initial plan
 	 */
-	public void traverseMap(){
-		
-		// minimim_K will be used to store what is returned from processState()
-		double minimum_K;
+	public PlanResult computeInitialPlan(){
+		startInitialPlan();
+		return runPlan(null);
+	}
+	
+	/**
+	 * Works on the initial plan or the pending replan until it is done or
+	 * the budget is used up, for control loops that can only spend so long
+	 * planning each tick.  A plan that runs out of budget keeps its open
+	 * list and carries on from there on the next step; the first step
+	 * starts the initial plan.
+	 * 
+	 * While a replan is partial nextWaypoint() follows the path the robot
+	 * had when the replan started, as long as its next edge has not been
+	 * cut off, and returns HOLD otherwise.  A partial initial plan holds.
+	 * computeInitialPlan() and replan() finish a partial plan
+	 * 
+	 * @param budget expansions or time this step may take
+	 * @return result of this step, isComplete() is false if the plan is not
+	 * done yet.  The call that finishes a plan returns the expansions and
+	 * time of all of its steps, as metrics and the listener see them
+	 */
+	public PlanResult step(PlanBudget budget){
+		startInitialPlan();
+		if(replanPending && !initialPlanPending && partialKey == PLAN_NOT_STARTED){
+			// no state has been processed for the new costs yet, so the
+			// back pointers still hold the path the robot had
+			heldPath = isReachable() ? getPath() : null;
+			heldOffset = 0;
+		}
+		return runPlan(budget);
+	}
+	
+	/**
+	 * Expands the map from the goal like computeInitialPlan(), using several
+	 * threads (see ParallelExpansion).  The states end up with the same h,
+	 * states the expansion did not close are put on the open list, so
+	 * reportObstacle and replan carry on from here as usual.  No
+	 * stateExpanded events are sent for the expanded states
+	 *
+	 * @param threads number of threads to expand with
+	 * @return result of the initial plan
+	 */
+	public PlanResult computeInitialPlan(int threads){
+		if(grid.getTag(goal) != GridStore.TAG_NEW){
+			throw new IllegalStateException("Initial plan has already been computed");
+		}
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+
+		if(listener != null){
+			listener.planStarted(this);
+		}
+
+		ParallelExpansion expansion = new ParallelExpansion(map, costs, threads);
+		expansion.run(goal, currentRobotPosition);
+
+		// copy the expanded field into the grid and open its frontier
+		for(int cell = 0; cell < grid.size(); cell++){
+			byte tag = expansion.getTag(cell);
+			if(tag == GridStore.TAG_NEW){
+				continue;
+			}
+			int h = expansion.getHUnits(cell);
+			grid.setHUnits(cell, h);
+			grid.setKUnits(cell, h);
+			grid.setTag(cell, tag);
+			grid.setBackPointer(cell, expansion.getBackPointer(cell));
+			if(tag == GridStore.TAG_OPEN){
+				openList.add(cell, openKey(cell), h);
+				if(h < INFINITY_UNITS){
+					finiteOpenStates++;
+				}
+			}
+		}
+		expansions += expansion.getExpansions();
+		path = null;
 		
-		// add the goal to the open list
-		insert(goal, 0);
+		// every state of the initial expansion is a LOWER state
+		statistics.lowerExpansions += expansion.getExpansions();
+		statistics.openListPeak = Math.max(statistics.openListPeak, openList.size());
+
+		PlanResult result = buildResult(startTime, startExpansions);
+		reportStatistics(true, result);
+		if(listener != null){
+			listener.initialPlanComputed(this, result);
+		}
 
-		// print the map
+		return result;
+	}
+
+	/**
+	 * Sets the costs around an obstacle to infinity and re-opens it.
+	 * The path is repaired by the next call to replan()
+	 * 
+	 * @param row row of the obstacle
+	 * @param column column of the obstacle
+	 */
+	public void reportObstacle(int row, int column){
+		int cell = grid.cellId(row, column);
 		
-		map.print();
+		// modify the cost from here to the obstacle to infinity
+		modifyCost(currentRobotPosition, cell, INFINITY_UNITS);
+		replanPending = true;
 		
-		// print the map as initialized and prompt user to start next seciont
-		int userInput;
-		try{
-			System.out.println("Map has been initialized!");
-			System.out.println("Ready to begin (press enter):");
-			userInput = System.in.read();
-		}catch(Exception e){
-			
+		if(listener != null){
+			listener.obstacleReported(this, cell);
 		}
-
-		// loop process state until minimum_K == -1 or that start state is closed
-		do{
-			minimum_K = processState();					
-		}while(minimum_K!=-1.0 && !start.getTag().equalsIgnoreCase("CLOSED"));
-		
-		// after processing initial loop of process state
-		// print the current state of the map
-		try{
-			map.print();
-			System.out.println("Map has been expanded from goal...");
-			System.out.println("We will either begin tracing to goal, or the goal is unreachable (press enter):");
-			userInput = System.in.read();
-		}catch(Exception e){
+	}
+	
+	/**
+	 * Applies all cost changes of the batch before processing any state.
+	 * modifyCost and modifyEdgeCost only put closed states on the open list,
+	 * so a state touched by several changes is opened once
+	 * 
+	 * @param batch cost changes, usually one sensor sweep
+	 * @return result of the replan
+	 */
+	public PlanResult replan(CostUpdateBatch batch){
+		applyBatch(batch);
+		return replan();
+	}
+	
+	/**
+	 * Applies the cost changes of a batch without processing any state,
+	 * the next replan() repairs the path
+	 * 
+	 * @param batch cost changes
+	 */
+	void applyBatch(CostUpdateBatch batch){
+		for(int i = 0; i < batch.getObstacleCount(); i++){
+			int cell = batch.getObstacle(i);
+			modifyCost(currentRobotPosition, cell, INFINITY_UNITS);
 			
+			if(listener != null){
+				listener.obstacleReported(this, cell);
+			}
+		}
+		
+		for(int i = 0; i < batch.getEdgeCount(); i++){
+			modifyEdgeCost(batch.getEdgeFrom(i), batch.getEdgeTo(i), batch.getEdgeCost(i));
+		}
+		
+		if(!batch.isEmpty()){
+			replanPending = true;
+		}
+	}
+	
+	/**
+	 * Processes states until the path from the robot is repaired
+	 * 
+	 * @return result of the replan
+	 */
+	public PlanResult replan(){
+		return runPlan(null);
+	}
+	
+	/**
+	 * Follows the back pointer of the robot's state
+	 * 
+	 * @return the next cell on the path
+	 */
+	public Waypoint nextWaypoint(){
+		int here = currentRobotPosition;
+		
+		if(here == goal){
+			return waypoint(Waypoint.Status.GOAL_REACHED, here);
+		}
+		
+		if(partialKey != PLAN_NOT_STARTED){
+			return heldWaypoint();
+		}
+		
+		int next = grid.getBackPointer(here);
+		if(next == GridStore.NO_CELL || !isReachable()){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+		
+		return waypoint(Waypoint.Status.MOVE, next);
+	}
+	
+	/**
+	 * Returns the robot's path, from the robot's cell to the goal.  The
+	 * path is kept until the search writes the h or back pointer of one of
+	 * its cells or the robot leaves it, so asking for it every control loop
+	 * tick only follows the back pointers again after a change.  The array
+	 * is shared with later calls and must not be changed
+	 * 
+	 * @return cell ids of the path, empty if the robot has no path
+	 */
+	public int[] getPath(){
+		if(path == null){
+			buildPath();
+		}else if(pathOffset > 0){
+			path = Arrays.copyOfRange(path, pathOffset, path.length);
+			pathOffset = 0;
+		}
+		return path;
+	}
+	
+	/**
+	 * Moves the robot to a new cell
+	 * 
+	 * @param row row the robot moved to
+	 * @param column column the robot moved to
+	 */
+	public void moveRobot(int row, int column){
+		if(focused){
+			// keys already on the open list were biased towards the old position,
+			// accumulating the distance moved keeps them a lower bound
+			accumulatedBias += octileDistance(row, column);
 		}
+		robotRow = row;
+		robotColumn = column;
+		currentRobotPosition = grid.cellId(row, column);
+		map.setRobotLocation(currentRobotPosition);
 		
-		// if mimimum_K == -1.0 then goal is unreachable
-		if(minimum_K == -1.0){
+		if(heldPath != null){
+			if(heldOffset + 1 < heldPath.length && heldPath[heldOffset + 1] == currentRobotPosition){
+				heldOffset++;
+			}else{
+				heldPath = null;
+			}
+		}
+		
+		// moving along the cached path keeps the rest of it
+		if(path != null){
+			if(pathOffset + 1 < path.length && path[pathOffset + 1] == currentRobotPosition){
+				pathOffset++;
+			}else if(path.length == 0 || path[pathOffset] != currentRobotPosition){
+				path = null;
+			}
+		}
+		
+		if(listener != null){
+			listener.robotMoved(this, currentRobotPosition);
+		}
+	}
+	
+	/**
+	 * Lets a FleetPlanner decide when the search has done enough, instead
+	 * of the path finder's own robot.  Only plain D* can serve a fleet,
+	 * Focused D* keys are biased towards a single robot
+	 * 
+	 * @param fleet fleet sharing this search
+	 */
+	void setFleet(FleetPlanner fleet){
+		if(focused){
+			throw new IllegalStateException("Focused D* can't serve a fleet");
+		}
+		this.fleet = fleet;
+	}
+	
+	/**
+	 * Puts the rest of a checkpointed planner back, see PlannerCheckpoint.
+	 * The grid already holds the checkpointed search state and the cost
+	 * table its overridden costs
+	 * 
+	 * @param bias accumulated Focused D* bias, in units
+	 * @param expansions expansions of the checkpointed planner
+	 * @param pending true if a replan was pending
+	 * @param open cell ids of the open states, in open list order
+	 * @param openK k of each open state, in units
+	 */
+	void restore(int bias, long expansions, boolean pending, int[] open, int[] openK){
+		this.accumulatedBias = bias;
+		this.expansions = expansions;
+		this.replanPending = pending;
+		for(int i = 0; i < open.length; i++){
+			int cell = open[i];
+			openList.add(cell, openKey(cell, openK[i]), openK[i]);
+			if(openK[i] < INFINITY_UNITS){
+				finiteOpenStates++;
+			}
+		}
+		statistics.reset(openList.size());
+		path = null;
+	}
+	
+	CostTable getCosts(){
+		return costs;
+	}
+	
+	/**
+	 * Returns the open states in the open list's own order, adding them
+	 * back in this order rebuilds a heap without moving any of them
+	 */
+	int[] getOpenStates(){
+		return openList.toArray();
+	}
+	
+	int getAccumulatedBias(){
+		return accumulatedBias;
+	}
+	
+	boolean isFocused(){
+		return focused;
+	}
+	
+	boolean hasFleet(){
+		return fleet != null;
+	}
+	
+	/**
+	 * Returns true from a cost change or the start of the initial plan until
+	 * the plan is done.  While it is, h values and back pointers may be
+	 * half way through a change
+	 * 
+	 * @return true if a plan is pending
+	 */
+	public boolean isPlanPending(){
+		return replanPending || initialPlanPending;
+	}
+	
+	/**
+	 * Returns true while an open state with a finite k can still lower
+	 * states that were raised to infinity
+	 */
+	boolean hasFiniteOpenStates(){
+		return finiteOpenStates > 0;
+	}
+	
+	/**
+	 * Makes the next replan() process states even without a cost change,
+	 * for robots that were added or moved off the settled part of the map
+	 */
+	void requestReplan(){
+		replanPending = true;
+	}
+	
+	public DstarMap getMap(){
+		return map;
+	}
+	
+	public void setListener(PlannerListener listener){
+		this.listener = listener;
+	}
+	
+	public void setMetrics(PlannerMetrics metrics){
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns the total number of states expanded by this path finder
+	 * 
+	 * @return number of calls to processState that expanded a state
+	 */
+	public long getExpansions(){
+		return expansions;
+	}
+	
+	/**
+	 * Call traverseMap to walk the robot from the start to the goal,
+	 * discovering unknown obstacles on the way.  Without a listener the
+	 * interactive console walkthrough is used.
+	 */
+	public void traverseMap(){
+		
+		if(listener == null){
+			setListener(new ConsoleWalkthrough());
+		}
+		
+		PlanResult result = computeInitialPlan();
+		
+		// if the initial plan did not reach the robot then goal is unreachable
+		if(!result.isReachable()){
 			System.out.println("Goal is unreachable...");
-			System.exit(0);
-		}else{
+			return;
+		}
+		
+		// start tracing path through back pointers
+		// trace until the goal is reached or the next node is unknown
+		do{
+			Waypoint next = nextWaypoint();
 			
-			// start tracing path through back pointers
-			// trace until the goal is reached or the next node is unknown
-			do{
-				DstarNode next;
-				DstarNode here;
-				boolean unknownFound = false;
-				map.print();
-				
-				do{
-					// start from where to robot is current located
-					here = map.getRobotLocation();
-					// get next node from current location back pointer
-					next = here.getBackPointer();
-					
-					// is next state unknown?
-					unknownFound = next.getState().equals("U");
-					
-					// next state non unknown?
-					if(!unknownFound){
-						
-						// move the robot
-						map.setRobotLocation(next);
-						currentRobotPosition = map.getRobotLocation();
-						
-						// print the map, wait for user input
-						map.print();
-						try{
-							System.out.println("Robot Moved!!");
-							System.out.println("Move again (press enter):");
-							userInput = System.in.read();
-						}catch(Exception e){
-							
-						}
-					}
-				}while(currentRobotPosition != goal && !unknownFound);
+			// if we reach the goal, stop
+			if(next.getStatus() == Waypoint.Status.GOAL_REACHED){
+				System.out.println("Goal has been reached!");
+				return;
+			}
+			
+			if(next.isUnknown()){
+				// we are not at the goal yet and found an unknown obstacle
+				reportObstacle(next.getRow(), next.getColumn());
 				
-				// if we reach the goal, exit
-				if(currentRobotPosition == goal){
-					System.out.println("Goal has been reached!");
-					System.exit(0);
-				}else{
-					// we are not at the goal yet
-					// let the user know we found an unknown obstacle
-					// prompt for input to continue
-					try{
-						System.out.println("Unkown Obstacle!!!");
-						System.out.println("Find another way (press enter):");
-						userInput = System.in.read();
-					}catch(Exception e){
-						
-					}
-					
-					// modify the cost from here to next to infinity
-					modifyCost(here, next, INFINITY_COST);
-					
-					// loop process state again until
-					// mimimum_K < h(next) or mimimum_K == -1.0
-					do{
-						minimum_K = processState();
-					}while(minimum_K < next.getH() && minimum_K!=-1.0 &&  !currentRobotPosition.getTag().equalsIgnoreCase("CLOSED") );//*BUG FIX, we weren't stopping the process state when the current robot position was closed, this caused the bot to recalculate too much and overwrite the correct path backpointers*//&& !(currentRobotPosition.equals(openList.peek())));
-										
-					// if mimimum_K == -1.0 goal is unreachable, exit application
-					if(minimum_K ==-1.0){
-						System.out.println("Goal is unreachable!");
-						System.exit(0);
-					}
-					
-					// print the map, wait for user input
-					map.print();
-					try{
-						System.out.println("Whew... I found my way!!");
-						System.out.println("Move again (press enter):");
-						userInput = System.in.read();
-					}catch(Exception e){
-						
-					}
+				// if the path could not be repaired, goal is unreachable
+				if(!replan().isReachable()){
+					System.out.println("Goal is unreachable!");
+					return;
 				}
-				
-			}while(true);
+			}else{
+				// move the robot
+				moveRobot(next.getRow(), next.getColumn());
+			}
+			
+		}while(true);
+	}
+	
+	/**
+	 * Puts the goal on the open list unless the search has already started
+	 */
+	private void startInitialPlan(){
+		if(grid.getTag(goal) != GridStore.TAG_NEW){
+			return;
+		}
+		insert(goal, 0);
+		initialPlanPending = true;
+		
+		if(listener != null){
+			listener.planStarted(this);
 		}
 	}
 	
+	/**
+	 * Processes states until the initial plan or the pending replan is
+	 * done, or the budget is used up.  Metrics and the listener are told
+	 * about a plan once it is done, with the expansions and time of all of
+	 * its steps, the same result the call that finishes it returns
+	 * 
+	 * @param budget budget of this call, null to run until the plan is done
+	 * @return result of this call, of the whole plan once it is done
+	 */
+	private PlanResult runPlan(PlanBudget budget){
+		long startTime = System.nanoTime();
+		long startExpansions = expansions;
+		boolean initialPlan = initialPlanPending;
+		boolean complete = true;
+		
+		if(initialPlanPending || replanPending){
+			// a plan that ran out of budget carries on with the key of the
+			// last state it processed, a new one processes a state first
+			int minimum_K = partialKey;
+			
+			// the initial plan runs until the robot state is closed.  A replan
+			// runs until the robot state is closed with a cost below infinity
+			// and mimimum_K >= h(robot), changed costs may be far from the
+			// robot, so a closed robot state alone doesn't mean the raise has
+			// been through it yet.  Either stops when minimum_K == NO_KEY
+			while(minimum_K == PLAN_NOT_STARTED || (minimum_K != NO_KEY && planPending(initialPlan, minimum_K))){
+				if(budget != null && expansions > startExpansions && budget.isUsedUp(expansions - startExpansions, startTime)){
+					complete = false;
+					break;
+				}
+				minimum_K = processState();
+			}
+			
+			partialKey = complete ? PLAN_NOT_STARTED : minimum_K;
+		}
+		
+		PlanResult result = buildResult(startTime, startExpansions, complete);
+		if(!complete){
+			partialExpansions += result.getExpansions();
+			partialNanos += result.getElapsedNanos();
+			return result;
+		}
+		
+		initialPlanPending = false;
+		replanPending = false;
+		heldPath = null;
+		
+		if(partialExpansions > 0){
+			result = new PlanResult(result.getStatus(), result.getExpansions() + partialExpansions,
+					result.getElapsedNanos() + partialNanos, result.getPathCost());
+			partialExpansions = 0;
+			partialNanos = 0;
+		}
+		
+		reportStatistics(initialPlan, result);
+		if(listener != null){
+			if(initialPlan){
+				listener.initialPlanComputed(this, result);
+			}else{
+				listener.replanned(this, result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Checks whether the plan being worked on still has to process states
+	 */
+	private boolean planPending(boolean initialPlan, int minimum_K){
+		if(initialPlan){
+			return fleet == null ? grid.getTag(currentRobotPosition) != GridStore.TAG_CLOSED : fleet.initialPlanPending();
+		}
+		return focused ? focusedReplanPending() : basicReplanPending(minimum_K);
+	}
+	
+	/**
+	 * Next step while a budgeted plan is partial, see step()
+	 */
+	private Waypoint heldWaypoint(){
+		int here = currentRobotPosition;
+		if(heldPath != null && heldOffset + 1 < heldPath.length && heldPath[heldOffset] == here){
+			int next = heldPath[heldOffset + 1];
+			if(costs.getUnits(here, next) < INFINITY_UNITS){
+				return waypoint(Waypoint.Status.MOVE, next);
+			}
+		}
+		return waypoint(Waypoint.Status.HOLD, here);
+	}
+	
+	/**
+	 * Hands the statistics of a plan to the metrics and starts counting
+	 * for the next one
+	 */
+	private void reportStatistics(boolean initialPlan, PlanResult result){
+		if(metrics != null){
+			statistics.elapsedNanos = result.getElapsedNanos();
+			statistics.expansions = result.getExpansions();
+			statistics.reachable = result.isReachable();
+			metrics.planFinished(this, initialPlan, statistics);
+		}
+		statistics.reset(openList.size());
+	}
+	
+	/**
+	 * Builds the result of a planning call
+	 */
+	private PlanResult buildResult(long startTime, long startExpansions){
+		return buildResult(startTime, startExpansions, true);
+	}
+	
+	private PlanResult buildResult(long startTime, long startExpansions, boolean complete){
+		PlanResult.Status status = isReachable() ? PlanResult.Status.PLANNED : PlanResult.Status.UNREACHABLE;
+		return new PlanResult(status, expansions - startExpansions, System.nanoTime() - startTime,
+				status == PlanResult.Status.PLANNED ? grid.getH(currentRobotPosition) : INFINITY_COST, 1, complete);
+	}
+	
+	/**
+	 * The robot state is settled once it is closed with a cost below
+	 * infinity, a closed robot state that was raised to infinity still
+	 * has to be lowered again by a neighbor
+	 */
+	private boolean robotSettled(){
+		return grid.getTag(currentRobotPosition) == GridStore.TAG_CLOSED
+				&& grid.getHUnits(currentRobotPosition) < INFINITY_UNITS;
+	}
+	
+	/**
+	 * Plain D* has repaired the path once the robot is settled and no open
+	 * state has a key below the robot's cost.  With a fleet attached every
+	 * robot of the fleet has to be repaired instead
+	 */
+	private boolean basicReplanPending(int minimum_K){
+		if(fleet != null){
+			return fleet.replanPending(minimum_K);
+		}
+		return !robotSettled() || minimum_K < grid.getHUnits(currentRobotPosition);
+	}
+	
+	/**
+	 * Focused D* has to keep going until the biased key of the head of the
+	 * open list passes the biased cost of the robot state, states expanded
+	 * out of order can otherwise leave stale back pointers near the robot.
+	 * A state straight down the robot's path has a key equal to the robot's
+	 * cost, so equal keys still have to be processed.  Keys are whole units,
+	 * so they compare exactly
+	 */
+	private boolean focusedReplanPending(){
+		if(!robotSettled()){
+			return true;
+		}
+		refocusHead();
+		return openList.peekKey() <= grid.getHUnits(currentRobotPosition) + accumulatedBias;
+	}
+	
+	/**
+	 * Follows the back pointers from the robot to the goal.  Without a path
+	 * the robot's cell is still watched, it gets a path once its h is set
+	 */
+	private void buildPath(){
+		pathOffset = 0;
+		if(!isReachable()){
+			path = new int[0];
+			pathCells = new int[] {currentRobotPosition};
+			return;
+		}
+		
+		int[] cells = new int[16];
+		int length = 0;
+		int cell = currentRobotPosition;
+		for(int steps = 0; steps < grid.size() && cell != GridStore.NO_CELL; steps++){
+			if(length == cells.length){
+				cells = Arrays.copyOf(cells, length * 2);
+			}
+			cells[length++] = cell;
+			if(cell == goal){
+				break;
+			}
+			cell = grid.getBackPointer(cell);
+		}
+		
+		path = Arrays.copyOf(cells, length);
+		Arrays.sort(cells, 0, length);
+		pathCells = length == cells.length ? cells : Arrays.copyOf(cells, length);
+	}
+	
+	/**
+	 * Drops the cached path if the search writes the h or back pointer of
+	 * one of its cells
+	 */
+	private void pathTouched(int cell){
+		if(path != null && Arrays.binarySearch(pathCells, cell) >= 0){
+			path = null;
+			pathCells = null;
+		}
+	}
+	
+	/**
+	 * The robot has a path if its state has been reached by the search
+	 * and its cost is below infinity
+	 */
+	private boolean isReachable(){
+		return grid.getTag(currentRobotPosition) != GridStore.TAG_NEW
+				&& grid.getHUnits(currentRobotPosition) < INFINITY_UNITS;
+	}
+	
+	private Waypoint waypoint(Waypoint.Status status, int cell){
+		return new Waypoint(status, cell, grid.rowOf(cell), grid.columnOf(cell), grid.getState(cell));
+	}
+	
 	/**
 	 * Modifies the cost of the paths of the unknown neighbors to infinity
 	 * 
 	 * @param current
 	 * @param neighbor
-	 * @param newVal
-	 * @return
+	 * @param newVal new h of the neighbor, in units
+	 * @return minimum k on the open list in units, NO_KEY if it is empty
 	 */
-	private double modifyCost(DstarNode current, DstarNode neighbor, double newVal){
+	private int modifyCost(int current, int neighbor, int newVal){
 		
 		//costs.updateValue(current.getLabel(), neighbor.getLabel(), newVal);
 				
 		//discrepency.setH(INFINITY_COST);
-		ArrayList<DstarNode> neighborList = map.getNeighbors(neighbor.getRow(), neighbor.getColumn());
+		int count = map.getNeighbors(neighbor, neighbors);
 		
 		// update the arc path costs of neighbor to its neighbors
-		for(DstarNode each: neighborList){
-			costs.updateValue(neighbor.getLabel(), each.getLabel(), INFINITY_COST);
+		for(int i = 0; i < count; i++){
+			costs.setValue(neighbor, neighbors[i], INFINITY_COST);
 		}
 
 		//neighbor.setH(newVal);
 		
 		// if neight is closed, then add it back to the open list with new h value
-		if(neighbor.getTag().equalsIgnoreCase("CLOSED")){
+		if(grid.getTag(neighbor) == GridStore.TAG_CLOSED){
 			
+			statistics.reopenedStates++;
 			insert(neighbor,newVal);
 		}
 	
 		// get the new minimum k value on the open list
-		DstarNode current_Min = openList.peek();
+		if(openList.isEmpty()){
+			return NO_KEY;
+		}
 		
-		return current_Min.getK();
+		return grid.getKUnits(openList.peek());
+	}
+	
+	/**
+	 * Changes the cost of one edge.  Closed end points of the edge are put
+	 * back on the open list with their current h, processing them passes
+	 * the new cost on (Stentz's MODIFY-COST)
+	 * 
+	 * @param from cell id of the first cell
+	 * @param to cell id of the second cell
+	 * @param newVal new cost of the edge
+	 */
+	private void modifyEdgeCost(int from, int to, double newVal){
+		costs.setValue(from, to, newVal);
+		
+		if(grid.getTag(from) == GridStore.TAG_CLOSED){
+			statistics.reopenedStates++;
+			insert(from, grid.getHUnits(from));
+		}
+		if(grid.getTag(to) == GridStore.TAG_CLOSED){
+			statistics.reopenedStates++;
+			insert(to, grid.getHUnits(to));
+		}
 	}
 	
 	/**
 	 * process the current node and sets neighbor values as deemed necessary
-	 * @return
+	 * @return minimum k on the open list in units, NO_KEY if it is empty
 	 */
-	private double processState(){
-		double k_Old;
-		ArrayList<DstarNode> neighbors;
-		int userInput;
+	private int processState(){
+		int k_Old;
+		int count;
 		// STEP 1
-		// if open list is empty exit return -1
+		// if open list is empty exit return NO_KEY
 		if (openList.isEmpty())
 		{
-			return -1.0;
+			return NO_KEY;
 		}
-		if (currentRobotPosition.getK() ==10000 && currentRobotPosition.getH() == 10000)
+		if (finiteOpenStates == 0 && (fleet == null ? grid.getKUnits(currentRobotPosition) == INFINITY_UNITS && grid.getHUnits(currentRobotPosition) == INFINITY_UNITS : fleet.allCutOff()))
 		{
-			return -1.0;
+			return NO_KEY;
 			
 		}
 		
 		// get node from head of openList (with mink)
-		DstarNode currentNode = openList.remove();
+		if(focused){
+			refocusHead();
+		}
+		int currentNode = openList.poll();
+		if(fleet != null){
+			fleet.cellTouched(currentNode);
+		}
 		
-		k_Old = currentNode.getK();//k_Old = Get Min K
+		k_Old = grid.getKUnits(currentNode);//k_Old = Get Min K
+		int h_X = grid.getHUnits(currentNode);
+		if(k_Old < INFINITY_UNITS){
+			finiteOpenStates--;
+		}
 		
 		// and set it to closed	
-		currentNode.setTag("CLOSED");//Delete X
+		grid.setTag(currentNode, GridStore.TAG_CLOSED);//Delete X
+		expansions++;
+		if(k_Old < h_X){
+			statistics.raiseExpansions++;
+		}else{
+			statistics.lowerExpansions++;
+		}
 		
 
 		// STEP 2 Re-routing if necessary
 		// refers to L4 - L7 in paper by Stentz
-		if(k_Old < currentNode.getH()){
-			
-			System.out.println("Step 2 - Rerouting - node: " + currentNode.getLabel());;
-	
+		if(k_Old < h_X){
 			
-			
-			neighbors = map.getNeighbors(currentNode.getRow(), currentNode.getColumn());
-			for(DstarNode neighbor : neighbors){
-				System.out.println("Updating Neighbor: " + neighbor.getLabel());
-				double costXthroughY = neighbor.getH() + costs.getValue(neighbor.getLabel(), currentNode.getLabel());
+			count = map.getNeighbors(currentNode, neighbors);
+			for(int i = 0; i < count; i++){
+				int neighbor = neighbors[i];
+				int h_Y = grid.getHUnits(neighbor);
+				int costXthroughY = pathCost(h_Y, costs.getUnits(neighbor, currentNode));
 				
-				if(neighbor.getH() <= k_Old &&
-					currentNode.getH() > costXthroughY){
-					System.out.println("-- step 2 -- set back pointer to " + neighbor.getLabel());
-					System.out.println("current: " + currentNode.getLabel());
-	
-					currentNode.setBackPointer(neighbor);
-					currentNode.setH(costXthroughY);
+				// NEW states have no cost yet and can't be routed through
+				if(grid.getTag(neighbor) != GridStore.TAG_NEW &&
+					h_Y <= k_Old &&
+					h_X > costXthroughY){
+					pathTouched(currentNode);
+					grid.setBackPointer(currentNode, neighbor);
+					grid.setHUnits(currentNode, costXthroughY);
+					h_X = costXthroughY;
 				}	
 			}
 		}
 		
 		// Step 3 - usually done in initial map state processing
 		// refers to L8 - L13 in paper by Stentz
-		if(k_Old == currentNode.getH()){
+		if(k_Old == h_X){
 			//System.out.println("Start Step 3");
 			
-			neighbors = map.getNeighbors(currentNode.getRow(), currentNode.getColumn());
+			count = map.getNeighbors(currentNode, neighbors);
 			
-			for(DstarNode neighbor : neighbors){
-				double costThroughX = currentNode.getH() + costs.getValue(currentNode.getLabel(), neighbor.getLabel());
-				double roundedNumber = (double)Math.round(costThroughX * 10) / 10;
-				if( neighbor.getTag().equalsIgnoreCase("NEW") ||
-				    (neighbor.getBackPointer() == currentNode && neighbor.getH() != costThroughX ) ||
-				    (neighbor.getBackPointer() != currentNode && neighbor.getH() > costThroughX )){
+			for(int i = 0; i < count; i++){
+				int neighbor = neighbors[i];
+				int costThroughX = pathCost(h_X, costs.getUnits(currentNode, neighbor));
+				if( grid.getTag(neighbor) == GridStore.TAG_NEW ||
+				    (grid.getBackPointer(neighbor) == currentNode && grid.getHUnits(neighbor) != costThroughX ) ||
+				    (grid.getBackPointer(neighbor) != currentNode && grid.getHUnits(neighbor) > costThroughX )){
 					
-					neighbor.setBackPointer(currentNode);
-					insert(neighbor, roundedNumber);
+					grid.setBackPointer(neighbor, currentNode);
+					insert(neighbor, costThroughX);
 				}
 			}
 		}
@@ -295,264 +929,189 @@ public class DstarPathFinder {
 		// Step 4
 		// referces to L14 - L25 in paper by Stentz
 		else{
-			neighbors = map.getNeighbors(currentNode.getRow(), currentNode.getColumn());
-			for(DstarNode neighbor : neighbors){
-				double costThroughX = currentNode.getH() + costs.getValue(currentNode.getLabel(), neighbor.getLabel());
-				double costXthroughY = neighbor.getH() + costs.getValue(neighbor.getLabel(), currentNode.getLabel());
-				//double roundedCostThroughX = costThroughX;
-			//	double roundedCostXThroughY = costXthroughY;
-				
-				double roundedCostThroughX = (double)Math.round(costThroughX * 10) / 10;
-				double roundedCostXThroughY = (double)Math.round(costXthroughY * 10) / 10;
-				double roundedH;
+			count = map.getNeighbors(currentNode, neighbors);
+			for(int i = 0; i < count; i++){
+				int neighbor = neighbors[i];
+				int h_Y = grid.getHUnits(neighbor);
+				int costThroughX = pathCost(h_X, costs.getUnits(currentNode, neighbor));
+				int costXthroughY = pathCost(h_Y, costs.getUnits(neighbor, currentNode));
 		
 				// Step 5
 				// refers to L16 - L18 paper by Stentz
-				if(neighbor.getTag().equalsIgnoreCase("NEW") || (neighbor.getBackPointer() == currentNode && neighbor.getH() != costThroughX)){
+				if(grid.getTag(neighbor) == GridStore.TAG_NEW || (grid.getBackPointer(neighbor) == currentNode && h_Y != costThroughX)){
 
-					//routeFirstViaSecond(neighbor,currentNode);
-					neighbor.setBackPointer(currentNode);
-					insert(neighbor,roundedCostThroughX);
+					grid.setBackPointer(neighbor, currentNode);
+					insert(neighbor, costThroughX);
 					
 
-				}else if(neighbor.getBackPointer() != currentNode && neighbor.getH() > roundedCostThroughX){
-					roundedH = (double)Math.round(currentNode.getH() * 10) / 10;
-					insert(currentNode, roundedH);
+				}else if(grid.getBackPointer(neighbor) != currentNode && h_Y > costThroughX){
+					insert(currentNode, h_X);
 					
-				}else if(neighbor.getBackPointer() != currentNode && currentNode.getH() > roundedCostXThroughY && neighbor.getTag().equalsIgnoreCase("CLOSED") && neighbor.getH() > k_Old){
-					roundedH = (double)Math.round(neighbor.getH() * 10) / 10;
-					insert(neighbor, roundedH);
+				}else if(grid.getBackPointer(neighbor) != currentNode && h_X > costXthroughY && grid.getTag(neighbor) == GridStore.TAG_CLOSED && h_Y > k_Old){
+					insert(neighbor, h_Y);
 				}
 			}
 		}
 		
 
 		// set minK, of openList is not empty, then get the minK from open list
-		double minK = -1.0;
+		int minK = NO_KEY;
 		if(!openList.isEmpty()){
-			minK = openList.peek().getK();
+			minK = grid.getKUnits(openList.peek());
 		}
-		try{
-			
-			System.out.println("Planning....");
-			System.out.println("Current Path:");
-			map.print();
-			System.out.println("Press ENTER to continue...");
-			userInput = System.in.read();
-		}catch(Exception e){
-			
+		
+		if(listener != null){
+			listener.stateExpanded(this, currentNode);
 		}
 		
 		return minK;
 		
 	}
 	
-	/**
-	 * routeFristViaSecond from Dr. Kays notes, however we don't use this
-	 * 
-	 * TODO remove
-	 * 
-	 * @param Y
-	 * @param X
-	 */
-	private void routeFirstViaSecond(DstarNode Y, DstarNode X){
-		Y.setBackPointer(X);
-		Y.setH(X.getH() + costs.getValue(X.getLabel(),Y.getLabel()));
-		if(Y.getTag().equalsIgnoreCase("NEW")){
-			Y.setK(Y.getH());
-		}
-		
-		/*
-		// since we are using a priority queue
-		// if Y is on the openlist and the K 
-		if(Y.getTag().equals("OPEN")){
-			openList.remove(Y);
-		}
-		*/
-		Y.setTag("OPEN");
-		openList.add(Y);
-	}
-	
 	/**
 	 * Update a nodes k and h value and inserts/reinserts a node into the open list
 	 * 
 	 * @param someNode
-	 * @param newH
+	 * @param newH new h in units
 	 */
-	private void insert(DstarNode someNode, double newH)
+	private void insert(int someNode, int newH)
 	{
-		if (newH>10000)
+		if (newH>INFINITY_UNITS)
 		{
-			newH = 10000;
+			newH = INFINITY_UNITS;
 		}
-		double roundedH;
-		double currentK;
-		DstarNode temp;
-		if (someNode.getTag().equalsIgnoreCase("NEW"))
+		if(fleet != null){
+			fleet.cellTouched(someNode);
+		}
+		pathTouched(someNode);
+		int currentK;
+		boolean wasFinite = grid.getTag(someNode) == GridStore.TAG_OPEN && grid.getKUnits(someNode) < INFINITY_UNITS;
+		if (grid.getTag(someNode) == GridStore.TAG_NEW)
 		{
-			someNode.setK(newH);
-			someNode.setH(newH);
-			someNode.setTag("OPEN");
-			openList.add(someNode);
+			grid.setKUnits(someNode, newH);
+			grid.setHUnits(someNode, newH);
+			grid.setTag(someNode, GridStore.TAG_OPEN);
+			openList.add(someNode, openKey(someNode), newH);
 		}
-		if (someNode.getTag().equalsIgnoreCase("OPEN"))
+		else if (grid.getTag(someNode) == GridStore.TAG_OPEN)
 		{
-			currentK=someNode.getK();
-			
-			openList.remove(someNode);
+			currentK=grid.getKUnits(someNode);
 			
-			someNode.setK(Math.min(currentK, newH));	
-			openList.add(someNode);
+			// re-key the node in place, the open list moves it up or down.
+			// h has to follow as well, otherwise a RAISE reaching a state
+			// that is still open is lost
+			grid.setKUnits(someNode, Math.min(currentK, newH));	
+			grid.setHUnits(someNode, newH);
+			openList.add(someNode, openKey(someNode), grid.getKUnits(someNode));
 			
 		}
-		if (someNode.getTag().equalsIgnoreCase("CLOSED"))
+		if (grid.getTag(someNode) == GridStore.TAG_CLOSED)
 		{
 			
-			int userInput;
-			roundedH = (double)Math.round(someNode.getH() * 10) / 10;
-			someNode.setK(Math.min(roundedH, newH));
-			someNode.setH(newH);
-			someNode.setTag("OPEN");
-			openList.add(someNode);
+			grid.setKUnits(someNode, Math.min(grid.getHUnits(someNode), newH));
+			grid.setHUnits(someNode, newH);
+			grid.setTag(someNode, GridStore.TAG_OPEN);
+			openList.add(someNode, openKey(someNode), grid.getKUnits(someNode));
 			
 		}
+		if(!wasFinite && grid.getKUnits(someNode) < INFINITY_UNITS){
+			finiteOpenStates++;
+		}
+		countInsert();
+	}
+	
+	/**
+	 * Counts a state put on the open list and keeps the peak size
+	 */
+	private void countInsert(){
+		statistics.inserts++;
+		if(openList.size() > statistics.openListPeak){
+			statistics.openListPeak = openList.size();
+		}
 	}
 	
 	/**
-	 * Initialized the cost table
+	 * Cost of reaching the goal over an edge in units, capped at infinity
+	 * like insert() caps h.  Without the cap states cut off from the goal
+	 * keep re-opening each other, each seeing the other's capped h below
+	 * its own uncapped sum
+	 */
+	private static int pathCost(int h, int edgeCost){
+		return Math.min(h + edgeCost, INFINITY_UNITS);
+	}
+	
+	/**
+	 * Returns the open list key of a state.  This is k for plain D*, for
+	 * Focused D* k is biased with the octile distance to the robot
 	 * 
-	 * TODO a lot of this is repative, and should be fixed
-	 * neightborOutofBounds should be a public method in DstarMap
+	 * @param id cell id
+	 * @return key used to order the open list, in units
 	 */
-	private void buildCostTable(){
-		//loop all nodes
-		// set cost between open nodes to 1 or 1.4
-		
-		int current_x=0;
-		int current_y=0;
+	private int openKey(int id){
+		return openKey(id, grid.getKUnits(id));
+	}
+	
+	/**
+	 * Returns the open list key of a state with the given k.  An infinite
+	 * k plus the bias would overflow an int, so the key is capped
+	 */
+	private int openKey(int id, int k){
+		if(!focused){
+			return k;
+		}
+		long key = (long) k + octileDistance(grid.rowOf(id), grid.columnOf(id)) + accumulatedBias;
+		return (int) Math.min(key, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * The key of the head of the open list may have been biased towards an
+	 * older robot position.  Keys only grow when they are worked out again,
+	 * so re-key the head until its key is current; it is then the real minimum
+	 */
+	private void refocusHead(){
+		int head = openList.peek();
+		int key = openKey(head);
 		
-		DstarNode neighbor;
-		for(int i=0; i < map.getRows(); i++){
-			for(int j=0; j < map.getColumns(); j++){
-				DstarNode current = map.getNode(i,j);
-				
-				// set top and bottom neighbor row values
-				int top = i-1;
-				int bottom = i+1;
-				
-				// set left and right neighbor column values
-				int left = j-1;
-				int right = j+1;
-				
-				// top left adjecent neighbor
-				if(!neighborOutOfBounds(top,left)){
-					
-					neighbor = map.getNode(top, left);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), ADJACENT_COST);
-					}
-					
-				}
-				
-				// direct top neighbor
-				if(!neighborOutOfBounds(top, j)){
-					neighbor = map.getNode(top, j);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), NORMAL_COST);
-					}
-				}
-				
-				// top right neighbor
-				if(!neighborOutOfBounds(top,right)){
-					neighbor = map.getNode(top, right);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), ADJACENT_COST);
-					}
-				}
-				
-				// left direct neighbor
-				if(!neighborOutOfBounds(i,left)){
-					neighbor = map.getNode(i, left);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), NORMAL_COST);
-					}
-				}
-				
-				// right direct neighbor
-				if(!neighborOutOfBounds(i, right)){
-					neighbor = map.getNode(i, right);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), NORMAL_COST);
-					}
-				}
-				
-				// bottom left neighbor
-				if(!neighborOutOfBounds(bottom,left)){
-					neighbor = map.getNode(bottom, left);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), ADJACENT_COST);
-					}
-				}
-				
-				// direct bottom neighbor
-				if(!neighborOutOfBounds(bottom,j)){
-					neighbor = map.getNode(bottom, j);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), NORMAL_COST);
-					}
-				}
-				
-				// bottom right neighbor
-				if(!neighborOutOfBounds(bottom,right)){
-					neighbor = map.getNode(bottom, right);
-					
-					if(current.getState().equalsIgnoreCase("B") || neighbor.getState().equalsIgnoreCase("B")){
-						costs.setValue(current.getLabel(), neighbor.getLabel(), INFINITY_COST);
-					}else{
-						costs.setValue(current.getLabel(), neighbor.getLabel(), ADJACENT_COST);
-					}
-				}
-			}
+		while(key > openList.peekKey()){
+			openList.add(head, key, grid.getKUnits(head));
+			head = openList.peek();
+			key = openKey(head);
 		}
 	}
 	
+	/**
+	 * Octile distance from a cell to the robot, the cost of the cheapest
+	 * path between them if the map had no obstacles, in units
+	 */
+	private int octileDistance(int row, int column){
+		int rows = Math.abs(row - robotRow);
+		int columns = Math.abs(column - robotColumn);
+		int diagonal = Math.min(rows, columns);
+		
+		return ADJACENT_UNITS * diagonal + NORMAL_UNITS * (Math.max(rows, columns) - diagonal);
+	}
+	
+	/**
+	 * Prints the edge costs that differ from the default costs
+	 */
 	public void printCosts(){
 		costs.printCostTable();
 	}
 	
 	public void printOpenList(){
 		
-		DstarNode[] list = new DstarNode[openList.size()];
-		
-		list = openList.toArray(list);
+		int[] ids = openList.toArray();
+		DstarNode[] list = new DstarNode[ids.length];
+		for(int i = 0; i < ids.length; i++){
+			list[i] = map.getNode(ids[i]);
+		}
 		
 		Arrays.sort(list);
 		
 		System.out.println("Open List Size: " + openList.size());
 		System.out.println("List Head\t\tK\t\tH");
 		System.out.println("------------------------------------------------");
-		DstarNode node = openList.peek();
+		DstarNode node = map.getNode(openList.peek());
 		System.out.println(node.getLabel() + "\t\t\t" + String.format("% ,.1f", node.getK()) + "\t\t" + String.format("% ,.1f", node.getH()));
 		
 		System.out.println("List Head\t\tK\t\tH");
@@ -562,25 +1121,4 @@ public class DstarPathFinder {
 		}
 	}
 	
-	/**
-	 * checks to see of the row,column in in the map
-	 * 
-	 * TODO get rid of this, and make the same method in DstarMap a public method
-	 * 
-	 * @param row
-	 * @param column
-	 * @return
-	 */
-	private boolean neighborOutOfBounds(int row, int column){
-		
-		boolean outofbounds = false;
-		if(row < 0 || row >= map.getRows() || column < 0 || column >= map.getColumns()){
-			outofbounds = true;
-		}
-		
-		return outofbounds;
-	}
-	
-	
-	
 }
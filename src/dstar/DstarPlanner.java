@@ -0,0 +1,99 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Headless planning API.  A planner never prints, waits for input or exits,
+ * every call hands back a result object that the caller can act on.
+ *
+ * A control loop usually looks like:
+ *
+ *   planner.computeInitialPlan();
+ *   while(...){
+ *       Waypoint next = planner.nextWaypoint();
+ *       if(next is blocked){
+ *           planner.reportObstacle(next.getRow(), next.getColumn());
+ *           planner.replan();
+ *       }else{
+ *           planner.moveRobot(next.getRow(), next.getColumn());
+ *       }
+ *   }
+ */
+package dstar;
+
+public interface DstarPlanner {
+
+	/**
+	 * Expands the map from the goal until the robot has a path, or
+	 * until it is known that the goal can't be reached
+	 *
+	 * @return result of the initial plan
+	 */
+	public PlanResult computeInitialPlan();
+
+	/**
+	 * Tells the planner that a cell turned out to be an obstacle.  The
+	 * costs are updated right away, the path is repaired on the next replan()
+	 *
+	 * @param row row of the obstacle
+	 * @param column column of the obstacle
+	 */
+	public void reportObstacle(int row, int column);
+
+	/**
+	 * Repairs the path after obstacles were reported
+	 *
+	 * @return result of the replan, no expansions if nothing was reported
+	 */
+	public PlanResult replan();
+
+	/**
+	 * Applies every cost change in the batch, opens each affected state
+	 * once and then repairs the path in a single replan
+	 *
+	 * @param batch cost changes, usually one sensor sweep
+	 * @return result of the replan
+	 */
+	public PlanResult replan(CostUpdateBatch batch);
+
+	/**
+	 * Returns the next cell on the path from the robot's position
+	 *
+	 * @return next waypoint, or the reason there is none
+	 */
+	public Waypoint nextWaypoint();
+
+	/**
+	 * Moves the robot to a new cell
+	 *
+	 * @param row row the robot moved to
+	 * @param column column the robot moved to
+	 */
+	public void moveRobot(int row, int column);
+
+	/**
+	 * Returns the total number of states this planner has expanded
+	 *
+	 * @return number of expansions since the planner was built
+	 */
+	public long getExpansions();
+
+	/**
+	 * Returns the map this planner works on
+	 *
+	 * @return the map
+	 */
+	public DstarMap getMap();
+
+	/**
+	 * Sets the listener that is told about planner events, null for none
+	 *
+	 * @param listener listener to notify
+	 */
+	public void setListener(PlannerListener listener);
+
+	/**
+	 * Sets the metrics that get the statistics of every plan, null for none
+	 *
+	 * @param metrics metrics to report to
+	 */
+	public void setMetrics(PlannerMetrics metrics);
+}
@@ -0,0 +1,426 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Plans for many robots heading to the same goal with a single D* search.
+ *
+ * D* searches backward from the goal, so once the search has settled a
+ * cell its h value and back pointer already give the best path from that
+ * cell to the goal.  Every robot of the fleet reads its path from the same
+ * back pointer field, there is one map, one cost table and one open list no
+ * matter how many robots there are.  The search only runs as far as the
+ * robots need: the initial plan stops once every robot's cell is closed and
+ * a replan stops once every robot's path has been repaired.
+ *
+ * After a replan getAffectedRobots() lists the robots whose path went
+ * through a cell the replan touched, the other robots can keep following
+ * the path they already had.
+ */
+package dstar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class FleetPlanner {
+
+	private DstarPathFinder search;
+	private DstarMap map;
+	private GridStore grid;
+
+	// cell of every robot, NO_CELL for a removed robot whose slot is free
+	private int[] robots = new int[8];
+	private int robotSlots = 0;
+
+	// cells whose cost or back pointer may have changed since the last
+	// replan, only recorded between a cost change and the replan after it
+	private BitSet touched = new BitSet();
+	private boolean tracking = false;
+
+	// robots whose path went through a touched cell in the last replan
+	private int[] affected = new int[8];
+	private int affectedCount = 0;
+
+	/**
+	 * Builds a fleet planner using an indexed heap for the open list
+	 *
+	 * @param map a valid DstarMap, its start cell is not planned for unless
+	 * a robot is added there
+	 */
+	public FleetPlanner(DstarMap map){
+		this(map, OpenListType.INDEXED_HEAP);
+	}
+
+	/**
+	 * Builds a fleet planner with the given open list implementation
+	 *
+	 * @param map a valid DstarMap
+	 * @param openListType open list implementation to use
+	 */
+	public FleetPlanner(DstarMap map, OpenListType openListType){
+		this.map = map;
+		this.grid = map.getGrid();
+		this.search = new DstarPathFinder(map, openListType, SearchMode.BASIC);
+		search.setFleet(this);
+	}
+
+	/**
+	 * Adds a robot to the fleet.  A robot added after the initial plan gets
+	 * its path with the next replan()
+	 *
+	 * @param row row of the robot
+	 * @param column column of the robot
+	 * @return handle of the robot, used by the other robot methods
+	 */
+	public int addRobot(int row, int column){
+		int robot = 0;
+		while(robot < robotSlots && robots[robot] != GridStore.NO_CELL){
+			robot++;
+		}
+		if(robot == robotSlots){
+			if(robotSlots == robots.length){
+				robots = Arrays.copyOf(robots, robotSlots * 2);
+			}
+			robotSlots++;
+		}
+
+		robots[robot] = grid.cellId(row, column);
+		search.requestReplan();
+		return robot;
+	}
+
+	/**
+	 * Removes a robot from the fleet, its handle may be given to a robot
+	 * added later
+	 *
+	 * @param robot handle of the robot
+	 */
+	public void removeRobot(int robot){
+		robots[robot] = GridStore.NO_CELL;
+		while(robotSlots > 0 && robots[robotSlots - 1] == GridStore.NO_CELL){
+			robotSlots--;
+		}
+	}
+
+	/**
+	 * Moves a robot to a new cell.  A step along the robot's path keeps it
+	 * on settled cells.  A replan that stopped once the other robots were
+	 * settled may have left stale h values and back pointers on closed
+	 * cells off their paths, so any other move is settled by the next
+	 * replan()
+	 *
+	 * @param robot handle of the robot
+	 * @param row row the robot moved to
+	 * @param column column the robot moved to
+	 */
+	public void moveRobot(int robot, int row, int column){
+		int cell = grid.cellId(row, column);
+		int from = robots[robot];
+		robots[robot] = cell;
+		if(from == GridStore.NO_CELL || !isReachable(from) || grid.getBackPointer(from) != cell){
+			search.requestReplan();
+		}
+	}
+
+	/**
+	 * Returns the cell a robot is on
+	 *
+	 * @param robot handle of the robot
+	 * @return cell id of the robot, NO_CELL if it was removed
+	 */
+	public int getRobotCell(int robot){
+		return robots[robot];
+	}
+
+	/**
+	 * Returns the number of robot handles in use, handles run from 0 up to
+	 * this count and removed robots have a cell of NO_CELL
+	 *
+	 * @return number of robot handles
+	 */
+	public int getRobotSlots(){
+		return robotSlots;
+	}
+
+	/**
+	 * Expands the map from the goal until every robot's cell is closed
+	 *
+	 * @return result of the initial plan, see buildResult
+	 */
+	public PlanResult computeInitialPlan(){
+		long startTime = System.nanoTime();
+		long startExpansions = search.getExpansions();
+
+		search.computeInitialPlan();
+		return buildResult(startTime, startExpansions);
+	}
+
+	/**
+	 * Sets the costs around an obstacle to infinity, the paths are repaired
+	 * by the next call to replan()
+	 *
+	 * @param row row of the obstacle
+	 * @param column column of the obstacle
+	 */
+	public void reportObstacle(int row, int column){
+		startTracking();
+		search.reportObstacle(row, column);
+	}
+
+	/**
+	 * Applies all cost changes of the batch and repairs the paths
+	 *
+	 * @param batch cost changes, usually one sensor sweep
+	 * @return result of the replan, see buildResult
+	 */
+	public PlanResult replan(CostUpdateBatch batch){
+		long startTime = System.nanoTime();
+		long startExpansions = search.getExpansions();
+
+		startTracking();
+		// open edge end points are not re-inserted, but their path changes
+		for(int i = 0; i < batch.getEdgeCount(); i++){
+			touched.set(batch.getEdgeFrom(i));
+			touched.set(batch.getEdgeTo(i));
+		}
+
+		search.replan(batch);
+		findAffectedRobots();
+		return buildResult(startTime, startExpansions);
+	}
+
+	/**
+	 * Processes states until the path of every robot is repaired
+	 *
+	 * @return result of the replan, see buildResult
+	 */
+	public PlanResult replan(){
+		long startTime = System.nanoTime();
+		long startExpansions = search.getExpansions();
+
+		startTracking();
+		search.replan();
+		findAffectedRobots();
+		return buildResult(startTime, startExpansions);
+	}
+
+	/**
+	 * Returns the robots whose path went through a cell touched by the last
+	 * replan, robots that are not listed still have the path they had
+	 *
+	 * @return handles of the affected robots
+	 */
+	public int[] getAffectedRobots(){
+		return Arrays.copyOf(affected, affectedCount);
+	}
+
+	/**
+	 * Follows the back pointer of a robot's cell
+	 *
+	 * @param robot handle of the robot
+	 * @return the next cell on the robot's path
+	 */
+	public Waypoint nextWaypoint(int robot){
+		int here = robots[robot];
+
+		if(here == map.getGoalId()){
+			return waypoint(Waypoint.Status.GOAL_REACHED, here);
+		}
+
+		int next = grid.getBackPointer(here);
+		if(next == GridStore.NO_CELL || !isReachable(here)){
+			return waypoint(Waypoint.Status.NO_PATH, here);
+		}
+
+		return waypoint(Waypoint.Status.MOVE, next);
+	}
+
+	/**
+	 * Returns the cells of a robot's path, from the robot's cell to the goal
+	 *
+	 * @param robot handle of the robot
+	 * @return cell ids of the path, empty if the robot has no path
+	 */
+	public int[] getPath(int robot){
+		int cell = robots[robot];
+		if(!isReachable(cell)){
+			return new int[0];
+		}
+
+		int[] path = new int[16];
+		int length = 0;
+		for(int steps = 0; steps < grid.size() && cell != GridStore.NO_CELL; steps++){
+			if(length == path.length){
+				path = Arrays.copyOf(path, length * 2);
+			}
+			path[length++] = cell;
+			if(cell == map.getGoalId()){
+				break;
+			}
+			cell = grid.getBackPointer(cell);
+		}
+		return Arrays.copyOf(path, length);
+	}
+
+	/**
+	 * Returns the cost of a robot's path to the goal
+	 *
+	 * @param robot handle of the robot
+	 * @return path cost, INFINITY_COST if the robot has no path
+	 */
+	public double getPathCost(int robot){
+		int cell = robots[robot];
+		return isReachable(cell) ? grid.getH(cell) : DstarPathFinder.INFINITY_COST;
+	}
+
+	public DstarMap getMap(){
+		return map;
+	}
+
+	/**
+	 * Sets the metrics that get the statistics of every plan of the shared
+	 * search, null for none
+	 *
+	 * @param metrics metrics to report to
+	 */
+	public void setMetrics(PlannerMetrics metrics){
+		search.setMetrics(metrics);
+	}
+
+	/**
+	 * Returns the total number of states expanded for the fleet
+	 *
+	 * @return number of expanded states
+	 */
+	public long getExpansions(){
+		return search.getExpansions();
+	}
+
+	/**
+	 * The initial plan keeps going until every robot's cell is closed
+	 */
+	boolean initialPlanPending(){
+		for(int i = 0; i < robotSlots; i++){
+			int cell = robots[i];
+			if(cell != GridStore.NO_CELL && grid.getTag(cell) != GridStore.TAG_CLOSED){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A replan keeps going while a robot that can still reach the goal is
+	 * not settled, or the head of the open list is below its cost.  Costs
+	 * are in the search's fixed-point units
+	 */
+	boolean replanPending(int minimumK){
+		for(int i = 0; i < robotSlots; i++){
+			int cell = robots[i];
+			if(cell == GridStore.NO_CELL || isCutOff(cell)){
+				continue;
+			}
+			if(grid.getTag(cell) != GridStore.TAG_CLOSED
+					|| grid.getHUnits(cell) >= CostTable.INFINITY_UNITS
+					|| minimumK < grid.getHUnits(cell)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The search can stop early once every robot is cut off from the goal
+	 */
+	boolean allCutOff(){
+		for(int i = 0; i < robotSlots; i++){
+			int cell = robots[i];
+			if(cell != GridStore.NO_CELL && !isCutOff(cell)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Called by the search for every state it opens or expands
+	 */
+	void cellTouched(int cell){
+		if(tracking){
+			touched.set(cell);
+		}
+	}
+
+	private void startTracking(){
+		if(!tracking){
+			touched.clear();
+			tracking = true;
+		}
+	}
+
+	/**
+	 * Walks the path of every robot looking for touched cells
+	 */
+	private void findAffectedRobots(){
+		affectedCount = 0;
+		tracking = false;
+		if(touched.isEmpty()){
+			return;
+		}
+
+		for(int i = 0; i < robotSlots; i++){
+			int cell = robots[i];
+			for(int steps = 0; steps < grid.size() && cell != GridStore.NO_CELL; steps++){
+				if(touched.get(cell)){
+					if(affectedCount == affected.length){
+						affected = Arrays.copyOf(affected, affectedCount * 2);
+					}
+					affected[affectedCount++] = i;
+					break;
+				}
+				if(cell == map.getGoalId()){
+					break;
+				}
+				cell = grid.getBackPointer(cell);
+			}
+		}
+	}
+
+	/**
+	 * The result is PLANNED when every robot has a path, its cost is the
+	 * cost of the most expensive robot path
+	 */
+	private PlanResult buildResult(long startTime, long startExpansions){
+		boolean reachable = true;
+		double cost = 0;
+		for(int i = 0; i < robotSlots; i++){
+			if(robots[i] == GridStore.NO_CELL){
+				continue;
+			}
+			reachable &= isReachable(robots[i]);
+			cost = Math.max(cost, getPathCost(i));
+		}
+
+		PlanResult.Status status = reachable ? PlanResult.Status.PLANNED : PlanResult.Status.UNREACHABLE;
+		return new PlanResult(status, search.getExpansions() - startExpansions, System.nanoTime() - startTime, cost);
+	}
+
+	/**
+	 * A cell is cut off once the search has raised it to infinity for good,
+	 * that is no open state with a finite k is left to lower it again.  A
+	 * closed cell at infinity can still be lowered while there is one, the
+	 * same rule the path finder uses for its own robot
+	 */
+	private boolean isCutOff(int cell){
+		return !search.hasFiniteOpenStates()
+				&& grid.getKUnits(cell) >= CostTable.INFINITY_UNITS
+				&& grid.getHUnits(cell) >= CostTable.INFINITY_UNITS;
+	}
+
+	private boolean isReachable(int cell){
+		return grid.getTag(cell) != GridStore.TAG_NEW
+				&& grid.getHUnits(cell) < CostTable.INFINITY_UNITS;
+	}
+
+	private Waypoint waypoint(Waypoint.Status status, int cell){
+		return new Waypoint(status, cell, grid.rowOf(cell), grid.columnOf(cell), grid.getState(cell));
+	}
+}
@@ -0,0 +1,405 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * GridStore keeps the per cell D* state (h, k, tag, state and back pointer)
+ * in parallel primitive arrays.  Every cell is addressed by an integer cell id
+ * (row * columns + column), so the path finder can work on plain ints instead
+ * of walking object references scattered across the heap.
+ *
+ * DstarNode objects are only lightweight views onto a cell of this store.
+ *
+ * TiledGridStore keeps the same cells in lazily allocated chunks instead,
+ * for huge maps where the search only reaches a small part of the grid.
+ */
+package dstar;
+
+import java.util.Arrays;
+
+public class GridStore {
+
+	// tag values, stored as one byte per cell
+	public static final byte TAG_NEW = 0;
+	public static final byte TAG_OPEN = 1;
+	public static final byte TAG_CLOSED = 2;
+
+	// cell states, stored as the map file character
+	public static final byte STATE_OPEN = 'O';
+	public static final byte STATE_BLOCKED = 'B';
+	public static final byte STATE_UNKNOWN = 'U';
+
+	// id used for "no cell", ie. an empty back pointer
+	public static final int NO_CELL = -1;
+
+	// tag names as they were used before the store existed
+	private static final String[] TAG_NAMES = {"NEW", "OPEN", "CLOSED"};
+
+	// bytes of search state per cell: h, k, tag and back pointer
+	static final int SEARCH_BYTES_PER_CELL = 8 + 8 + 1 + 4;
+
+	// D* works on costs in fixed-point units of 1 / COST_SCALE, so sums of
+	// 1 and 1.4 steps are exact
+	public static final int COST_SCALE = 10;
+
+	// snapshots copy h and back pointers in tiles of this many cell ids
+	static final int TILE_SHIFT = 12;
+	static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+	private int rows;
+	private int columns;
+	private int cells;
+
+	private double[] h;			// current cost to goal from each cell
+	private double[] k;			// lowest value of h each cell has seen
+	private byte[] tag;			// NEW, OPEN or CLOSED
+	private byte[] state;		// O, B or U
+	private int[] backPointer;	// cell id of the back pointer, NO_CELL if not set
+
+	// one bit per tile whose h or back pointer changed since the last
+	// snapshot, null while no snapshots are taken
+	private long[] dirtyTiles;
+
+	/**
+	 * Allocates a store for a rows x columns grid.  All cells start out
+	 * as open (O) with a NEW tag and no back pointer
+	 *
+	 * @param rows number of rows
+	 * @param columns number of columns
+	 */
+	public GridStore(int rows, int columns){
+		this(rows, columns, true);
+	}
+
+	/**
+	 * Sets up the size of the grid, the arrays are only allocated when
+	 * asked for.  Subclasses that keep the cells elsewhere skip them
+	 *
+	 * @param rows number of rows
+	 * @param columns number of columns
+	 * @param allocate true to allocate the dense arrays
+	 */
+	GridStore(int rows, int columns, boolean allocate){
+		if((long) rows * columns > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Grid of " + rows + " x " + columns + " cells is too large");
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.cells = rows * columns;
+
+		if(!allocate){
+			return;
+		}
+
+		int size = cells;
+		h = new double[size];
+		k = new double[size];
+		tag = new byte[size];
+		state = new byte[size];
+		backPointer = new int[size];
+
+		Arrays.fill(state, STATE_OPEN);
+		Arrays.fill(backPointer, NO_CELL);
+	}
+
+	/**
+	 * Allocates a store that shares the cell states of another store, but
+	 * has its own h, k, tag and back pointer arrays.  Lets several planners
+	 * search the same map without overwriting each other
+	 *
+	 * @param terrain store whose cell states are shared
+	 */
+	public GridStore(GridStore terrain){
+		this(terrain, true);
+	}
+
+	/**
+	 * Shares the cell states of another store.  Subclasses that keep h and
+	 * k elsewhere skip the double arrays
+	 *
+	 * @param terrain store whose cell states are shared
+	 * @param allocateCosts true to allocate the h and k arrays
+	 */
+	GridStore(GridStore terrain, boolean allocateCosts){
+		this.rows = terrain.rows;
+		this.columns = terrain.columns;
+		this.cells = terrain.cells;
+
+		int size = cells;
+		if(allocateCosts){
+			h = new double[size];
+			k = new double[size];
+		}
+		tag = new byte[size];
+		state = terrain.state;
+		backPointer = new int[size];
+
+		Arrays.fill(backPointer, NO_CELL);
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the number of cells in the store
+	 *
+	 * @return rows * columns
+	 */
+	public int size() {
+		return cells;
+	}
+
+	/**
+	 * Estimates the memory taken by the search state of this store, h, k,
+	 * tag and back pointer of every cell.  Cell states are not counted, they
+	 * may be shared with other stores
+	 *
+	 * @return estimated bytes
+	 */
+	public long estimateSearchBytes() {
+		return (long) cells * SEARCH_BYTES_PER_CELL;
+	}
+
+	/**
+	 * Creates a store for another search over the same map, sharing the
+	 * cell states of this store but with search state of its own
+	 *
+	 * @return new store of the same kind
+	 */
+	public GridStore newSearchStore(){
+		return new GridStore(this);
+	}
+
+	/**
+	 * Converts a row and column into a cell id
+	 *
+	 * @param row row of the cell
+	 * @param column column of the cell
+	 * @return cell id
+	 */
+	public int cellId(int row, int column){
+		return row * columns + column;
+	}
+
+	public int rowOf(int id){
+		return id / columns;
+	}
+
+	public int columnOf(int id){
+		return id % columns;
+	}
+
+	/**
+	 * Check to see if the given row and column are inside the grid
+	 *
+	 * @param row row number to check
+	 * @param column column number to check
+	 * @return true if the row and column are valid
+	 */
+	public boolean inBounds(int row, int column){
+		return row >= 0 && row < rows && column >= 0 && column < columns;
+	}
+
+	/**
+	 * Builds the printable label of a cell, the row concatenated with the column
+	 *
+	 * @param id cell id
+	 * @return label of the cell
+	 */
+	public String getLabel(int id){
+		return Integer.toString(rowOf(id)) + Integer.toString(columnOf(id));
+	}
+
+	public double getH(int id) {
+		return h[id];
+	}
+
+	public void setH(int id, double value) {
+		h[id] = value;
+		if(dirtyTiles != null){
+			markDirty(id);
+		}
+	}
+
+	public double getK(int id) {
+		return k[id];
+	}
+
+	public void setK(int id, double value) {
+		k[id] = value;
+	}
+
+	/**
+	 * Returns h in fixed-point units, see COST_SCALE.  The dense and tiled
+	 * stores keep doubles and round on every call, FixedPointGridStore
+	 * returns its ints as they are
+	 *
+	 * @param id cell id
+	 * @return h times COST_SCALE
+	 */
+	public int getHUnits(int id) {
+		return toUnits(getH(id));
+	}
+
+	/**
+	 * Sets h from fixed-point units, see COST_SCALE.  INFINITY_UNITS is
+	 * stored as an infinite h
+	 *
+	 * @param id cell id
+	 * @param units h times COST_SCALE
+	 */
+	public void setHUnits(int id, int units) {
+		setH(id, toCost(units));
+	}
+
+	public int getKUnits(int id) {
+		return toUnits(getK(id));
+	}
+
+	public void setKUnits(int id, int units) {
+		setK(id, toCost(units));
+	}
+
+	/**
+	 * Rounds a cost to units, an infinite cost (D* Lite's infinity or an
+	 * unreachable D* state) becomes CostTable.INFINITY_UNITS
+	 */
+	private static int toUnits(double cost){
+		return (int) Math.min(Math.round(cost * COST_SCALE), CostTable.INFINITY_UNITS);
+	}
+
+	private static double toCost(int units){
+		return units >= CostTable.INFINITY_UNITS ? Double.POSITIVE_INFINITY : units / (double) COST_SCALE;
+	}
+
+	public byte getTag(int id) {
+		return tag[id];
+	}
+
+	public void setTag(int id, byte value) {
+		tag[id] = value;
+	}
+
+	public byte getState(int id) {
+		return state[id];
+	}
+
+	public void setState(int id, byte value) {
+		state[id] = value;
+	}
+
+	public int getBackPointer(int id) {
+		return backPointer[id];
+	}
+
+	public void setBackPointer(int id, int pointer) {
+		backPointer[id] = pointer;
+		if(dirtyTiles != null){
+			markDirty(id);
+		}
+	}
+
+	/**
+	 * Starts recording which tiles change.  Tiles that may already hold
+	 * search state start out dirty, so the first snapshot copies them
+	 */
+	void trackDirtyTiles(){
+		int tiles = tileCount();
+		dirtyTiles = new long[(tiles + 63) >>> 6];
+		markWrittenTiles();
+	}
+
+	/**
+	 * Marks every tile that may differ from a new store as dirty, for the
+	 * dense arrays that is all of them
+	 */
+	void markWrittenTiles(){
+		for(int tile = 0; tile < tileCount(); tile++){
+			dirtyTiles[tile >>> 6] |= 1L << tile;
+		}
+	}
+
+	/**
+	 * Returns the number of snapshot tiles the cells are split into
+	 */
+	int tileCount(){
+		return (int) (((long) cells + TILE_SIZE - 1) >>> TILE_SHIFT);
+	}
+
+	/**
+	 * Returns the next dirty tile at or after a tile and marks it clean
+	 *
+	 * @param from first tile to look at
+	 * @return the dirty tile, -1 if there is none
+	 */
+	int takeDirtyTile(int from){
+		for(int word = from >>> 6; word < dirtyTiles.length; word++){
+			long bits = dirtyTiles[word];
+			if(word == from >>> 6){
+				bits &= -1L << from;
+			}
+			if(bits != 0){
+				int tile = (word << 6) + Long.numberOfTrailingZeros(bits);
+				dirtyTiles[word] &= ~(1L << tile);
+				return tile;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies the h values and back pointers of one tile
+	 *
+	 * @param tile tile to copy
+	 * @param tileH receives the h values
+	 * @param tileBackPointers receives the back pointers
+	 */
+	void copyTile(int tile, double[] tileH, int[] tileBackPointers){
+		int first = tile << TILE_SHIFT;
+		int count = Math.min(TILE_SIZE, cells - first);
+		System.arraycopy(h, first, tileH, 0, count);
+		System.arraycopy(backPointer, first, tileBackPointers, 0, count);
+	}
+
+	/**
+	 * Records that the tile of a cell has changed
+	 */
+	void markDirty(int id){
+		dirtyTiles[id >>> (TILE_SHIFT + 6)] |= 1L << (id >>> TILE_SHIFT);
+	}
+
+	/**
+	 * Returns true while snapshots are being taken of this store
+	 */
+	boolean isTrackingDirtyTiles(){
+		return dirtyTiles != null;
+	}
+
+	/**
+	 * Returns the name of a tag value (NEW, OPEN or CLOSED)
+	 *
+	 * @param tag tag value
+	 * @return name of the tag
+	 */
+	public static String tagName(byte tag){
+		return TAG_NAMES[tag];
+	}
+
+	/**
+	 * Parses a tag name back into a tag value, case is ignored
+	 *
+	 * @param name NEW, OPEN or CLOSED
+	 * @return tag value
+	 */
+	public static byte tagValue(String name){
+		for(byte i = 0; i < TAG_NAMES.length; i++){
+			if(TAG_NAMES[i].equalsIgnoreCase(name)){
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown tag: " + name);
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Binary min heap of cell ids that remembers where every cell sits in the
+ * heap.  Because the position of a cell is known, changing its key (up or
+ * down) and removing it are O(log n) instead of the linear scan that
+ * java.util.PriorityQueue needs.
+ *
+ * Keys are compared first, second keys only break ties.
+ *
+ * Heap positions are kept in pages of 4096 cells that are allocated the
+ * first time a cell of the page is added, so a search that only touches a
+ * small part of a huge map only pays for the part it touches.
+ */
+package dstar;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+public class IndexedBinaryHeap implements OpenList {
+
+	// cells per page of heap positions
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// position of every cell in the heap, -1 when it is not on the heap.
+	// Pages are null until one of their cells is added
+	private int[][] position;
+
+	// heap ordered cell ids and their keys, index 0 is the head
+	private int[] heap;
+	private double[] keys;
+	private double[] secondKeys;
+	private int size = 0;
+
+	/**
+	 * @param cells number of cells in the map
+	 */
+	public IndexedBinaryHeap(int cells){
+		position = new int[(int) (((long) cells + PAGE_MASK) >> PAGE_SHIFT)][];
+
+		heap = new int[16];
+		keys = new double[16];
+		secondKeys = new double[16];
+	}
+
+	public void add(int id, double key) {
+		add(id, key, 0);
+	}
+
+	public void add(int id, double key, double secondKey) {
+		int index = getPosition(id);
+
+		if(index == -1){
+			// new entry, append and move it up
+			if(size == heap.length){
+				heap = Arrays.copyOf(heap, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+				secondKeys = Arrays.copyOf(secondKeys, size * 2);
+			}
+			heap[size] = id;
+			keys[size] = key;
+			secondKeys[size] = secondKey;
+			setPosition(id, size);
+			size++;
+			siftUp(size - 1);
+		}else{
+			// existing entry, move it whichever way the new keys require
+			boolean smaller = less(key, secondKey, keys[index], secondKeys[index]);
+			keys[index] = key;
+			secondKeys[index] = secondKey;
+			if(smaller){
+				siftUp(index);
+			}else{
+				siftDown(index);
+			}
+		}
+	}
+
+	public boolean remove(int id) {
+		int index = getPosition(id);
+		if(index == -1){
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	public int poll() {
+		if(size == 0){
+			throw new NoSuchElementException();
+		}
+		int id = heap[0];
+		removeAt(0);
+		return id;
+	}
+
+	public int peek() {
+		if(size == 0){
+			return GridStore.NO_CELL;
+		}
+		return heap[0];
+	}
+
+	public double peekKey() {
+		if(size == 0){
+			throw new NoSuchElementException();
+		}
+		return keys[0];
+	}
+
+	public double peekSecondKey() {
+		if(size == 0){
+			throw new NoSuchElementException();
+		}
+		return secondKeys[0];
+	}
+
+	public double getKey(int id) {
+		return keys[getPosition(id)];
+	}
+
+	public boolean contains(int id) {
+		return getPosition(id) != -1;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		for(int i = 0; i < size; i++){
+			setPosition(heap[i], -1);
+		}
+		size = 0;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(heap, size);
+	}
+
+	/**
+	 * Removes the entry at a heap index by moving the last entry into its
+	 * place and restoring the heap order from there
+	 *
+	 * @param index heap index to remove
+	 */
+	private void removeAt(int index){
+		setPosition(heap[index], -1);
+		size--;
+
+		if(index == size){
+			return;
+		}
+
+		boolean smaller = less(keys[size], secondKeys[size], keys[index], secondKeys[index]);
+		heap[index] = heap[size];
+		keys[index] = keys[size];
+		secondKeys[index] = secondKeys[size];
+		setPosition(heap[index], index);
+
+		if(smaller){
+			siftUp(index);
+		}else{
+			siftDown(index);
+		}
+	}
+
+	private void siftUp(int index){
+		int id = heap[index];
+		double key = keys[index];
+		double secondKey = secondKeys[index];
+
+		while(index > 0){
+			int parent = (index - 1) >>> 1;
+			if(!less(key, secondKey, keys[parent], secondKeys[parent])){
+				break;
+			}
+			move(parent, index);
+			index = parent;
+		}
+
+		heap[index] = id;
+		keys[index] = key;
+		secondKeys[index] = secondKey;
+		setPosition(id, index);
+	}
+
+	private void siftDown(int index){
+		int id = heap[index];
+		double key = keys[index];
+		double secondKey = secondKeys[index];
+		int half = size >>> 1;
+
+		while(index < half){
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if(right < size && less(keys[right], secondKeys[right], keys[child], secondKeys[child])){
+				child = right;
+			}
+			if(!less(keys[child], secondKeys[child], key, secondKey)){
+				break;
+			}
+			move(child, index);
+			index = child;
+		}
+
+		heap[index] = id;
+		keys[index] = key;
+		secondKeys[index] = secondKey;
+		setPosition(id, index);
+	}
+
+	/**
+	 * Moves the entry at one heap index to another
+	 */
+	private void move(int from, int to){
+		heap[to] = heap[from];
+		keys[to] = keys[from];
+		secondKeys[to] = secondKeys[from];
+		setPosition(heap[to], to);
+	}
+
+	/**
+	 * Returns the heap index of a cell, -1 when it is not on the heap
+	 */
+	private int getPosition(int id){
+		int[] page = position[id >>> PAGE_SHIFT];
+		return page == null ? -1 : page[id & PAGE_MASK];
+	}
+
+	/**
+	 * Stores the heap index of a cell, allocating its page if needed
+	 */
+	private void setPosition(int id, int index){
+		int[] page = position[id >>> PAGE_SHIFT];
+		if(page == null){
+			if(index == -1){
+				return;
+			}
+			page = new int[PAGE_SIZE];
+			Arrays.fill(page, -1);
+			position[id >>> PAGE_SHIFT] = page;
+		}
+		page[id & PAGE_MASK] = index;
+	}
+
+	/**
+	 * Returns true if the first pair of keys orders before the second pair
+	 */
+	private static boolean less(double key, double secondKey, double otherKey, double otherSecondKey){
+		return key < otherKey || (key == otherKey && secondKey < otherSecondKey);
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Histogram of latencies in microseconds with a fixed number of buckets.
+ * Values below 8 get a bucket each, above that every power of two is split
+ * into 8 buckets, so a percentile is off by at most 12.5%.  Any thread can
+ * record a value without locking.
+ */
+package dstar;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+	// buckets per power of two
+	private static final int SUB_BUCKET_SHIFT = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_SHIFT;
+
+	// enough buckets for any long
+	private static final int BUCKETS = (63 - SUB_BUCKET_SHIFT + 1) * SUB_BUCKETS;
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one value
+	 *
+	 * @param micros latency in microseconds, negative values count as 0
+	 */
+	public void record(long micros){
+		if(micros < 0){
+			micros = 0;
+		}
+		counts.incrementAndGet(bucketOf(micros));
+		count.incrementAndGet();
+
+		long current = max.get();
+		while(micros > current && !max.compareAndSet(current, micros)){
+			current = max.get();
+		}
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which a share of the recorded values fall.
+	 * This is the upper end of the bucket holding that value, never more
+	 * than the largest recorded value
+	 *
+	 * @param quantile share of values, 0.5 for the median
+	 * @return latency in microseconds, 0 if nothing was recorded
+	 */
+	public long percentile(double quantile){
+		long total = count.get();
+		if(total == 0){
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for(int bucket = 0; bucket < BUCKETS; bucket++){
+			seen += counts.get(bucket);
+			if(seen >= rank){
+				return Math.min(upperBound(bucket), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears all recorded values.  Values recorded at the same time by
+	 * other threads may or may not be kept
+	 */
+	public void reset(){
+		for(int bucket = 0; bucket < BUCKETS; bucket++){
+			counts.set(bucket, 0);
+		}
+		count.set(0);
+		max.set(0);
+	}
+
+	private static int bucketOf(long value){
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_SHIFT;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	private static long upperBound(int bucket){
+		if(bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Thrown when a map file does not hold a valid map.  Carries the row and
+ * column (both 0 based, like the map labels) where the problem was found,
+ * or -1 when the problem is not tied to one cell (ie. a missing goal).
+ */
+package dstar;
+
+import java.io.IOException;
+
+public class MapFormatException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private int row;
+	private int column;
+
+	public MapFormatException(String message, int row, int column){
+		super(row < 0 ? message : message + " at row " + row + ", column " + column);
+		this.row = row;
+		this.column = column;
+	}
+
+	public MapFormatException(String message){
+		this(message, -1, -1);
+	}
+
+	/**
+	 * Returns the row the problem was found on
+	 *
+	 * @return 0 based row, -1 if the problem is not tied to a cell
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Returns the column the problem was found on
+	 *
+	 * @return 0 based column, -1 if the problem is not tied to a cell
+	 */
+	public int getColumn() {
+		return column;
+	}
+}
@@ -0,0 +1,610 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Builds seeded maps of any size for benchmarks and soak tests.  The same
+ * seed, size, terrain and pattern always give the same map.
+ *
+ * The start is placed near the bottom left corner and the goal near the
+ * top right corner.  Hidden (U) cells are marked on open cells following a
+ * DiscoveryPattern, they are never placed on or next to the start or goal.
+ * The goal stays reachable even after the robot has found every hidden
+ * cell, so a run only ends at the goal.
+ *
+ * Usage: java dstar.MapGenerator rows columns terrain pattern seed file
+ * writes a text map, or a binary map if the file name ends in .bin
+ */
+package dstar;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MapGenerator {
+
+	// row and column steps of the 4 maze directions
+	private static final int[] MAZE_ROWS = {-2, 2, 0, 0};
+	private static final int[] MAZE_COLUMNS = {0, 0, 2, -2};
+
+	// fraction of the remaining maze walls knocked out to make loops
+	private static final double MAZE_LOOPS = 0.1;
+
+	private long seed;
+	private double density = 0.2;			// blocked fraction for CLUTTER and OPEN_FIELD
+	private double hiddenDensity = 0.02;	// hidden fraction, or hidden features per cell of line
+
+	private Random random;
+	private DstarMap map;
+	private GridStore grid;
+	private int[] neighbors = new int[8];
+
+	public MapGenerator(long seed){
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the fraction of cells blocked by CLUTTER and OPEN_FIELD terrain
+	 *
+	 * @param density fraction between 0 and 1
+	 */
+	public void setDensity(double density){
+		if(density < 0 || density > 1){
+			throw new IllegalArgumentException("Density must be between 0 and 1: " + density);
+		}
+		this.density = density;
+	}
+
+	/**
+	 * Sets how many hidden cells are marked.  For SCATTERED and CLUSTERS it
+	 * is the fraction of cells that are hidden, for WALLS and ON_PATH it is
+	 * the number of walls or hidden cells per cell of the start to goal line
+	 *
+	 * @param hiddenDensity fraction between 0 and 1
+	 */
+	public void setHiddenDensity(double hiddenDensity){
+		if(hiddenDensity < 0 || hiddenDensity > 1){
+			throw new IllegalArgumentException("Hidden density must be between 0 and 1: " + hiddenDensity);
+		}
+		this.hiddenDensity = hiddenDensity;
+	}
+
+	/**
+	 * Builds a new map
+	 *
+	 * @param rows number of rows
+	 * @param columns number of columns
+	 * @param terrain kind of terrain to build
+	 * @param pattern layout of the hidden cells
+	 * @return the map, the robot is placed on the start cell
+	 */
+	public DstarMap generate(int rows, int columns, MapTerrain terrain, DiscoveryPattern pattern){
+		if(rows < 2 || columns < 2){
+			throw new IllegalArgumentException("Map must be at least 2 x 2: " + rows + " x " + columns);
+		}
+
+		random = new Random(seed);
+		map = new DstarMap(rows, columns);
+		grid = map.getGrid();
+
+		if(terrain == MapTerrain.CLUTTER){
+			buildClutter();
+		}else if(terrain == MapTerrain.MAZE){
+			buildMaze();
+		}else if(terrain == MapTerrain.ROOMS){
+			buildRooms();
+		}else{
+			buildOpenField();
+		}
+
+		if(terrain == MapTerrain.CLUTTER || terrain == MapTerrain.OPEN_FIELD){
+			clearCorner(rows - 1, 0);
+			clearCorner(0, columns - 1);
+		}
+		int start = nearestOpen(rows - 1, 0, -1, 1);
+		int goal = nearestOpen(0, columns - 1, 1, -1);
+
+		int[] path = shortestPath(start, goal);
+		if(path == null){
+			carveLine(start, goal);
+			path = shortestPath(start, goal);
+		}
+
+		if(pattern == DiscoveryPattern.SCATTERED){
+			hideScattered(start, goal);
+		}else if(pattern == DiscoveryPattern.CLUSTERS){
+			hideClusters(start, goal);
+		}else if(pattern == DiscoveryPattern.WALLS){
+			hideWalls(start, goal);
+		}else if(pattern == DiscoveryPattern.ON_PATH){
+			hideOnPath(path, start, goal);
+		}
+
+		if(pattern != DiscoveryPattern.NONE){
+			keepReachable(start, goal);
+		}
+		map.setEndpoints(start, goal);
+
+		DstarMap result = map;
+		map = null;
+		grid = null;
+		return result;
+	}
+
+	/**
+	 * Blocks every cell with the chosen density
+	 */
+	private void buildClutter(){
+		for(int cell = 0; cell < grid.size(); cell++){
+			if(random.nextDouble() < density){
+				grid.setState(cell, GridStore.STATE_BLOCKED);
+			}
+		}
+	}
+
+	/**
+	 * Carves a maze with a depth first search.  Corridor cells sit on even
+	 * rows and columns, walls in between are knocked out as the search
+	 * moves from one corridor cell to the next.  Afterwards a few more walls
+	 * are knocked out so there are loops, otherwise one hidden cell in a
+	 * corridor would cut the maze in two
+	 */
+	private void buildMaze(){
+		fill(GridStore.STATE_BLOCKED);
+
+		int[] stack = new int[((grid.getRows() + 1) / 2) * ((grid.getColumns() + 1) / 2)];
+		int[] options = new int[MAZE_ROWS.length];
+		int top = 0;
+
+		stack[top++] = 0;
+		grid.setState(0, GridStore.STATE_OPEN);
+
+		while(top > 0){
+			int cell = stack[top - 1];
+			int row = grid.rowOf(cell);
+			int column = grid.columnOf(cell);
+
+			// directions that lead to a corridor cell not carved yet
+			int count = 0;
+			for(int i = 0; i < MAZE_ROWS.length; i++){
+				int r = row + MAZE_ROWS[i];
+				int c = column + MAZE_COLUMNS[i];
+				if(grid.inBounds(r, c) && grid.getState(grid.cellId(r, c)) == GridStore.STATE_BLOCKED){
+					options[count++] = i;
+				}
+			}
+
+			if(count == 0){
+				top--;
+				continue;
+			}
+
+			int direction = options[random.nextInt(count)];
+			int r = row + MAZE_ROWS[direction];
+			int c = column + MAZE_COLUMNS[direction];
+			grid.setState(grid.cellId(row + MAZE_ROWS[direction] / 2, column + MAZE_COLUMNS[direction] / 2), GridStore.STATE_OPEN);
+			grid.setState(grid.cellId(r, c), GridStore.STATE_OPEN);
+			stack[top++] = grid.cellId(r, c);
+		}
+
+		for(int cell = 0; cell < grid.size(); cell++){
+			int row = grid.rowOf(cell);
+			int column = grid.columnOf(cell);
+			boolean between = (row % 2 == 1 && column % 2 == 0 && row + 1 < grid.getRows())
+					|| (row % 2 == 0 && column % 2 == 1 && column + 1 < grid.getColumns());
+			if(between && grid.getState(cell) == GridStore.STATE_BLOCKED && random.nextDouble() < MAZE_LOOPS){
+				grid.setState(cell, GridStore.STATE_OPEN);
+			}
+		}
+	}
+
+	/**
+	 * Places rooms that do not touch each other and joins every room to
+	 * the one placed before it with an L shaped corridor
+	 */
+	private void buildRooms(){
+		fill(GridStore.STATE_BLOCKED);
+
+		int rows = grid.getRows();
+		int columns = grid.getColumns();
+		int attempts = Math.max(4, grid.size() / 100);
+		int previousRow = -1;
+		int previousColumn = -1;
+
+		for(int attempt = 0; attempt < attempts; attempt++){
+			int height = Math.min(rows, 4 + random.nextInt(9));
+			int width = Math.min(columns, 4 + random.nextInt(9));
+			int top = random.nextInt(rows - height + 1);
+			int left = random.nextInt(columns - width + 1);
+
+			if(!isClear(top - 1, left - 1, height + 2, width + 2)){
+				continue;
+			}
+			fillRectangle(top, left, height, width, GridStore.STATE_OPEN);
+
+			int centerRow = top + height / 2;
+			int centerColumn = left + width / 2;
+			if(previousRow >= 0){
+				if(random.nextBoolean()){
+					fillRectangle(previousRow, Math.min(previousColumn, centerColumn), 1, Math.abs(centerColumn - previousColumn) + 1, GridStore.STATE_OPEN);
+					fillRectangle(Math.min(previousRow, centerRow), centerColumn, Math.abs(centerRow - previousRow) + 1, 1, GridStore.STATE_OPEN);
+				}else{
+					fillRectangle(Math.min(previousRow, centerRow), previousColumn, Math.abs(centerRow - previousRow) + 1, 1, GridStore.STATE_OPEN);
+					fillRectangle(centerRow, Math.min(previousColumn, centerColumn), 1, Math.abs(centerColumn - previousColumn) + 1, GridStore.STATE_OPEN);
+				}
+			}
+			previousRow = centerRow;
+			previousColumn = centerColumn;
+		}
+
+		// start and goal are joined to the rooms by the shortest path check
+		if(previousRow < 0){
+			fill(GridStore.STATE_OPEN);
+		}
+	}
+
+	/**
+	 * Drops round obstacles on open ground until the chosen density of
+	 * cells is blocked
+	 */
+	private void buildOpenField(){
+		long target = (long) (density * grid.size());
+		int maxRadius = Math.max(1, Math.min(6, Math.min(grid.getRows(), grid.getColumns()) / 16));
+		long blocked = 0;
+
+		for(long attempt = 0; blocked < target && attempt < target * 4 + 16; attempt++){
+			int cell = random.nextInt(grid.size());
+			int radius = 1 + random.nextInt(maxRadius);
+			blocked += fillDisc(grid.rowOf(cell), grid.columnOf(cell), radius, GridStore.STATE_OPEN, GridStore.STATE_BLOCKED, GridStore.NO_CELL, GridStore.NO_CELL);
+		}
+	}
+
+	/**
+	 * Hides single open cells until the hidden density is reached
+	 */
+	private void hideScattered(int start, int goal){
+		long target = (long) (hiddenDensity * grid.size());
+		long hidden = 0;
+
+		for(long attempt = 0; hidden < target && attempt < target * 10; attempt++){
+			int cell = random.nextInt(grid.size());
+			if(grid.getState(cell) == GridStore.STATE_OPEN && !isProtected(cell, start, goal)){
+				grid.setState(cell, GridStore.STATE_UNKNOWN);
+				hidden++;
+			}
+		}
+	}
+
+	/**
+	 * Hides round patches of open cells until the hidden density is reached
+	 */
+	private void hideClusters(int start, int goal){
+		long target = (long) (hiddenDensity * grid.size());
+		long hidden = 0;
+
+		for(long attempt = 0; hidden < target && attempt < target * 4 + 16; attempt++){
+			int cell = random.nextInt(grid.size());
+			int radius = 1 + random.nextInt(3);
+			hidden += fillDisc(grid.rowOf(cell), grid.columnOf(cell), radius, GridStore.STATE_OPEN, GridStore.STATE_UNKNOWN, start, goal);
+		}
+	}
+
+	/**
+	 * Hides walls at right angles to the line from start to goal, spread
+	 * evenly along the line.  Every wall keeps a 2 cell gap
+	 */
+	private void hideWalls(int start, int goal){
+		double startRow = grid.rowOf(start);
+		double startColumn = grid.columnOf(start);
+		double lineRows = grid.rowOf(goal) - startRow;
+		double lineColumns = grid.columnOf(goal) - startColumn;
+		double length = Math.sqrt(lineRows * lineRows + lineColumns * lineColumns);
+		if(length < 1){
+			return;
+		}
+
+		int walls = Math.max(1, (int) (hiddenDensity * length));
+		int halfLength = Math.max(2, (int) (length / 8));
+
+		// unit vector across the line
+		double acrossRows = -lineColumns / length;
+		double acrossColumns = lineRows / length;
+
+		for(int wall = 1; wall <= walls; wall++){
+			double along = (double) wall / (walls + 1);
+			double centerRow = startRow + along * lineRows;
+			double centerColumn = startColumn + along * lineColumns;
+			int gap = random.nextInt(2 * halfLength) - halfLength;
+
+			int previousRow = Integer.MIN_VALUE;
+			int previousColumn = Integer.MIN_VALUE;
+			for(int step = -halfLength; step <= halfLength; step++){
+				int row = (int) Math.round(centerRow + step * acrossRows);
+				int column = (int) Math.round(centerColumn + step * acrossColumns);
+
+				if(step == gap || step == gap + 1){
+					// the gap is opened up, terrain must not seal the wall
+					if(grid.inBounds(row, column)){
+						grid.setState(grid.cellId(row, column), GridStore.STATE_OPEN);
+					}
+				}else{
+					hideCell(row, column, start, goal);
+					// a diagonal step would leave a hole the robot can slip through
+					if(previousRow != Integer.MIN_VALUE && row != previousRow && column != previousColumn && step - 1 != gap + 1){
+						hideCell(previousRow, column, start, goal);
+					}
+				}
+				previousRow = row;
+				previousColumn = column;
+			}
+		}
+	}
+
+	/**
+	 * Hides cells on the shortest known path, spaced by the hidden density.
+	 * A path shorter than the spacing still gets one hidden cell halfway
+	 */
+	private void hideOnPath(int[] path, int start, int goal){
+		if(hiddenDensity == 0){
+			return;
+		}
+		int spacing = Math.max(2, Math.min((int) Math.round(1 / hiddenDensity), path.length / 2));
+
+		for(int i = spacing; i < path.length; i += spacing){
+			if(!isProtected(path[i], start, goal) && grid.getState(path[i]) == GridStore.STATE_OPEN){
+				grid.setState(path[i], GridStore.STATE_UNKNOWN);
+			}
+		}
+	}
+
+	private void hideCell(int row, int column, int start, int goal){
+		if(grid.inBounds(row, column)){
+			int cell = grid.cellId(row, column);
+			if(grid.getState(cell) == GridStore.STATE_OPEN && !isProtected(cell, start, goal)){
+				grid.setState(cell, GridStore.STATE_UNKNOWN);
+			}
+		}
+	}
+
+	/**
+	 * Finds a shortest path over the cells that are not blocked with a
+	 * breadth first search, using the same 8 neighbors as the planners
+	 *
+	 * @return cell ids from start to goal, null if the goal cannot be reached
+	 */
+	private int[] shortestPath(int start, int goal){
+		int[] parent = new int[grid.size()];
+		int[] queue = new int[grid.size()];
+		Arrays.fill(parent, GridStore.NO_CELL);
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		parent[start] = start;
+
+		while(head < tail && parent[goal] == GridStore.NO_CELL){
+			int cell = queue[head++];
+			int count = map.getNeighbors(cell, neighbors);
+			for(int i = 0; i < count; i++){
+				int neighbor = neighbors[i];
+				if(parent[neighbor] == GridStore.NO_CELL && grid.getState(neighbor) != GridStore.STATE_BLOCKED){
+					parent[neighbor] = cell;
+					queue[tail++] = neighbor;
+				}
+			}
+		}
+
+		if(parent[goal] == GridStore.NO_CELL){
+			return null;
+		}
+
+		int length = 1;
+		for(int cell = goal; cell != start; cell = parent[cell]){
+			length++;
+		}
+		int[] path = new int[length];
+		for(int cell = goal, i = length - 1; i >= 0; cell = parent[cell], i--){
+			path[i] = cell;
+		}
+		return path;
+	}
+
+	/**
+	 * Makes sure the goal can still be reached once every hidden cell has
+	 * been found.  A 0-1 breadth first search finds the path that crosses
+	 * the fewest hidden cells, and those hidden cells are opened again
+	 */
+	private void keepReachable(int start, int goal){
+		int size = grid.size();
+		int[] crossed = new int[size];
+		int[] parent = new int[size];
+		int[] deque = new int[2 * size + 1];
+		Arrays.fill(crossed, Integer.MAX_VALUE);
+
+		// the deque has room for every cell to be added at either end
+		int head = size;
+		int tail = size;
+		deque[tail++] = start;
+		crossed[start] = 0;
+		parent[start] = start;
+
+		while(head < tail){
+			int cell = deque[head++];
+			if(cell == goal){
+				break;
+			}
+
+			int count = map.getNeighbors(cell, neighbors);
+			for(int i = 0; i < count; i++){
+				int neighbor = neighbors[i];
+				byte state = grid.getState(neighbor);
+				if(state == GridStore.STATE_BLOCKED){
+					continue;
+				}
+
+				int weight = state == GridStore.STATE_UNKNOWN ? 1 : 0;
+				if(crossed[cell] + weight < crossed[neighbor]){
+					crossed[neighbor] = crossed[cell] + weight;
+					parent[neighbor] = cell;
+					if(weight == 0){
+						deque[--head] = neighbor;
+					}else{
+						deque[tail++] = neighbor;
+					}
+				}
+			}
+		}
+
+		for(int cell = goal; cell != start; cell = parent[cell]){
+			if(grid.getState(cell) == GridStore.STATE_UNKNOWN){
+				grid.setState(cell, GridStore.STATE_OPEN);
+			}
+		}
+	}
+
+	/**
+	 * Opens a straight line of cells from start to goal
+	 */
+	private void carveLine(int start, int goal){
+		int row = grid.rowOf(start);
+		int column = grid.columnOf(start);
+		int goalRow = grid.rowOf(goal);
+		int goalColumn = grid.columnOf(goal);
+
+		grid.setState(start, GridStore.STATE_OPEN);
+		while(row != goalRow || column != goalColumn){
+			row += Integer.signum(goalRow - row);
+			column += Integer.signum(goalColumn - column);
+			grid.setState(grid.cellId(row, column), GridStore.STATE_OPEN);
+		}
+	}
+
+	/**
+	 * Finds the open cell closest to a corner, searching inwards
+	 *
+	 * @param rowStep 1 or -1, the direction of the rows away from the corner
+	 * @param columnStep 1 or -1, the direction of the columns away from the corner
+	 */
+	private int nearestOpen(int row, int column, int rowStep, int columnStep){
+		int limit = Math.max(grid.getRows(), grid.getColumns());
+		for(int distance = 0; distance < limit; distance++){
+			for(int i = 0; i <= distance; i++){
+				int cell = openCell(row + rowStep * i, column + columnStep * distance);
+				if(cell == GridStore.NO_CELL){
+					cell = openCell(row + rowStep * distance, column + columnStep * i);
+				}
+				if(cell != GridStore.NO_CELL){
+					return cell;
+				}
+			}
+		}
+
+		// nothing open at all, clear the corner itself
+		grid.setState(grid.cellId(row, column), GridStore.STATE_OPEN);
+		return grid.cellId(row, column);
+	}
+
+	private int openCell(int row, int column){
+		if(grid.inBounds(row, column) && grid.getState(grid.cellId(row, column)) == GridStore.STATE_OPEN){
+			return grid.cellId(row, column);
+		}
+		return GridStore.NO_CELL;
+	}
+
+	/**
+	 * Opens the corner cell and the cells touching it
+	 */
+	private void clearCorner(int row, int column){
+		for(int r = row - 1; r <= row + 1; r++){
+			for(int c = column - 1; c <= column + 1; c++){
+				if(grid.inBounds(r, c)){
+					grid.setState(grid.cellId(r, c), GridStore.STATE_OPEN);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hidden cells stay off the start, the goal and the cells touching them
+	 */
+	private boolean isProtected(int cell, int start, int goal){
+		return isNear(cell, start) || isNear(cell, goal);
+	}
+
+	private boolean isNear(int cell, int other){
+		return Math.abs(grid.rowOf(cell) - grid.rowOf(other)) <= 1 && Math.abs(grid.columnOf(cell) - grid.columnOf(other)) <= 1;
+	}
+
+	private void fill(byte state){
+		for(int cell = 0; cell < grid.size(); cell++){
+			grid.setState(cell, state);
+		}
+	}
+
+	/**
+	 * Checks that every cell of a rectangle is blocked, cells outside of
+	 * the map count as blocked
+	 */
+	private boolean isClear(int top, int left, int height, int width){
+		for(int r = top; r < top + height; r++){
+			for(int c = left; c < left + width; c++){
+				if(grid.inBounds(r, c) && grid.getState(grid.cellId(r, c)) != GridStore.STATE_BLOCKED){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void fillRectangle(int top, int left, int height, int width, byte state){
+		for(int r = top; r < top + height; r++){
+			for(int c = left; c < left + width; c++){
+				grid.setState(grid.cellId(r, c), state);
+			}
+		}
+	}
+
+	/**
+	 * Changes the cells of a disc that are in the from state to the to
+	 * state, skipping cells near the start or goal when they are given
+	 *
+	 * @return number of cells changed
+	 */
+	private int fillDisc(int row, int column, int radius, byte from, byte to, int start, int goal){
+		int changed = 0;
+		for(int r = row - radius; r <= row + radius; r++){
+			for(int c = column - radius; c <= column + radius; c++){
+				if(!grid.inBounds(r, c) || (r - row) * (r - row) + (c - column) * (c - column) > radius * radius){
+					continue;
+				}
+
+				int cell = grid.cellId(r, c);
+				if(grid.getState(cell) != from || (start != GridStore.NO_CELL && isProtected(cell, start, goal))){
+					continue;
+				}
+				grid.setState(cell, to);
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	public static void main(String[] args) {
+		if(args.length != 6){
+			System.err.println("Usage: java dstar.MapGenerator rows columns terrain pattern seed file");
+			return;
+		}
+
+		MapGenerator generator = new MapGenerator(Long.parseLong(args[4]));
+		DstarMap map = generator.generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+				MapTerrain.valueOf(args[2].toUpperCase()), DiscoveryPattern.valueOf(args[3].toUpperCase()));
+
+		try{
+			if(args[5].endsWith(".bin")){
+				BinaryMap.save(map, args[5]);
+			}else{
+				MapLoader.save(map, args[5]);
+			}
+		}catch(IOException e){
+			System.err.println(e.getMessage());
+		}
+	}
+}
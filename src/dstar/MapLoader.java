@@ -0,0 +1,227 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Loads text map files (one line per row, one O, B, U, S or G character
+ * per cell) without knowing the size of the map up front.
+ *
+ * The file is memory mapped, so the operating system pages it in instead
+ * of it being copied through a stream.  The width of the map comes from the
+ * first line and the number of rows from the file length, then one pass
+ * over the bytes checks every row and writes the cell states straight into
+ * the GridStore of the new map.  Nothing is allocated per cell.
+ *
+ * save() writes a map back out in the same text format.
+ */
+package dstar;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MapLoader {
+
+	// files are mapped in windows of this many bytes, a single mapping
+	// cannot be larger than 2GB
+	private static final int WINDOW_SHIFT = 30;
+	private static final long WINDOW_SIZE = 1L << WINDOW_SHIFT;
+
+	private MapLoader(){
+	}
+
+	/**
+	 * Loads a map file, working out the rows and columns from the file.
+	 * Binary maps (see BinaryMap) are recognised by their header
+	 *
+	 * @param filename path of the map file
+	 * @return the loaded map, the robot is placed on the start cell
+	 * @throws MapFormatException if the file does not hold a valid map
+	 * @throws IOException if the file cannot be read
+	 */
+	public static DstarMap load(String filename) throws IOException {
+		if(BinaryMap.isBinaryMap(filename)){
+			return BinaryMap.load(filename);
+		}
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if(length == 0){
+				throw new MapFormatException("Map file is empty");
+			}
+
+			MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((length + WINDOW_SIZE - 1) >>> WINDOW_SHIFT)];
+			for(int i = 0; i < windows.length; i++){
+				long position = (long) i << WINDOW_SHIFT;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, length - position));
+			}
+
+			return parse(windows, length);
+		}finally{
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes a map as a text map file, the start and goal are written as
+	 * S and G
+	 *
+	 * @param map map to save
+	 * @param filename path of the map file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(DstarMap map, String filename) throws IOException {
+		GridStore grid = map.getGrid();
+		byte[] line = new byte[grid.getColumns() + 1];
+		line[grid.getColumns()] = '\n';
+
+		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+		try{
+			int cell = 0;
+			for(int row = 0; row < grid.getRows(); row++){
+				for(int column = 0; column < grid.getColumns(); column++, cell++){
+					if(cell == map.getStartId()){
+						line[column] = 'S';
+					}else if(cell == map.getGoalId()){
+						line[column] = 'G';
+					}else{
+						line[column] = grid.getState(cell);
+					}
+				}
+				out.write(line);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Works out the size of the map, allocates it and fills it in one pass
+	 */
+	private static DstarMap parse(MappedByteBuffer[] windows, long length) throws MapFormatException {
+		// trailing line breaks do not start another row
+		long end = length;
+		while(end > 0 && isLineBreak(byteAt(windows, end - 1))){
+			end--;
+		}
+		if(end == 0){
+			throw new MapFormatException("Map file has no cells");
+		}
+
+		// the first line sets the width of the map and the line break used
+		int columns = 0;
+		int lineBreak = 1;
+		for(long i = 0; i < end; i++){
+			byte c = byteAt(windows, i);
+			if(c == '\n'){
+				break;
+			}
+			if(c == '\r'){
+				lineBreak = 2;
+				break;
+			}
+			columns++;
+		}
+		if(columns == 0){
+			throw new MapFormatException("First row has no cells", 0, 0);
+		}
+
+		// every row takes the same number of bytes, a length that does not
+		// fit gets one extra row so the pass below finds the bad line
+		long stride = columns + lineBreak;
+		long rows = (end + lineBreak) / stride;
+		if((end + lineBreak) % stride != 0){
+			rows++;
+		}
+		if(rows * columns > Integer.MAX_VALUE){
+			throw new MapFormatException("Map of " + rows + " x " + columns + " cells is too large");
+		}
+
+		DstarMap map = new DstarMap((int) rows, columns);
+		GridStore grid = map.getGrid();
+
+		int row = 0;
+		int column = 0;
+		int cell = 0;
+		int start = GridStore.NO_CELL;
+		int goal = GridStore.NO_CELL;
+		long remaining = end;
+
+		for(int w = 0; w < windows.length && remaining > 0; w++){
+			MappedByteBuffer window = windows[w];
+			window.position(0);
+			int count = (int) Math.min(window.limit(), remaining);
+			remaining -= count;
+
+			for(int i = 0; i < count; i++){
+				byte c = window.get();
+
+				if(c == '\n'){
+					if(column != columns){
+						throw new MapFormatException("Row has " + column + " cells, expected " + columns, row, column);
+					}
+					row++;
+					column = 0;
+					continue;
+				}
+				if(c == '\r'){
+					continue;
+				}
+
+				if(column == columns){
+					throw new MapFormatException("Row is longer than " + columns + " cells", row, column);
+				}
+				if(row == rows){
+					throw new MapFormatException("Row is outside of the map", row, column);
+				}
+
+				byte state;
+				if(c == 'O' || c == 'B' || c == 'U'){
+					state = c;
+				}else if(c == 'S'){
+					if(start != GridStore.NO_CELL){
+						throw new MapFormatException("Second start cell", row, column);
+					}
+					state = GridStore.STATE_OPEN;
+					start = cell;
+				}else if(c == 'G'){
+					if(goal != GridStore.NO_CELL){
+						throw new MapFormatException("Second goal cell", row, column);
+					}
+					state = GridStore.STATE_OPEN;
+					goal = cell;
+				}else{
+					throw new MapFormatException("Unexpected character '" + (char) (c & 0xff) + "'", row, column);
+				}
+
+				grid.setState(cell, state);
+				cell++;
+				column++;
+			}
+		}
+
+		if(column != columns){
+			throw new MapFormatException("Row has " + column + " cells, expected " + columns, row, column);
+		}
+		if(start == GridStore.NO_CELL){
+			throw new MapFormatException("Map has no start cell (S)");
+		}
+		if(goal == GridStore.NO_CELL){
+			throw new MapFormatException("Map has no goal cell (G)");
+		}
+
+		map.setEndpoints(start, goal);
+		return map;
+	}
+
+	private static byte byteAt(MappedByteBuffer[] windows, long position){
+		return windows[(int) (position >>> WINDOW_SHIFT)].get((int) (position & (WINDOW_SIZE - 1)));
+	}
+
+	private static boolean isLineBreak(byte c){
+		return c == '\n' || c == '\r';
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Draws a DstarMap as text, in the cell layout DstarMap.print() has always
+ * used.  A frame is built in a buffer that is reused from one frame to the
+ * next and written out in one go.
+ *
+ * The frame can be limited to a viewport of rows and columns around the
+ * robot.  renderChanges() only writes the cells of the viewport that
+ * changed since the last frame, one line per cell, which is what makes
+ * following a search on a large map practical.
+ *
+ * Nothing is drawn unless a frame is asked for: planners never call the
+ * renderer, only listeners like ConsoleWalkthrough do.
+ */
+package dstar;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+public class MapRenderer {
+
+	// characters per cell, not counting the | in front of it
+	private static final int CELL_WIDTH = 14;
+
+	// what else is drawn in a cell, kept per cell to spot changes
+	private static final byte MARK_ROBOT = 1;
+	private static final byte MARK_START = 2;
+	private static final byte MARK_GOAL = 4;
+
+	private DstarMap map;
+	private GridStore grid;
+	private Writer out;
+
+	private StringBuilder buffer = new StringBuilder();
+	private char[] chars = new char[0];
+
+	// viewport size, 0 for the whole map
+	private int viewportRows = 0;
+	private int viewportColumns = 0;
+
+	// viewport of the last frame and what each of its cells showed,
+	// indexed by row and column within the viewport
+	private boolean framed = false;
+	private int top;
+	private int left;
+	private int frameRows;
+	private int frameColumns;
+	private double[] lastH;
+	private double[] lastK;
+	private int[] lastBackPointer;
+	private byte[] lastTag;
+	private byte[] lastState;
+	private byte[] lastMarks;
+
+	/**
+	 * Builds a renderer writing to System.out
+	 *
+	 * @param map map to draw
+	 */
+	public MapRenderer(DstarMap map){
+		this(map, new PrintWriter(System.out));
+	}
+
+	/**
+	 * Builds a renderer writing to any writer, the writer is flushed after
+	 * every frame
+	 *
+	 * @param map map to draw
+	 * @param out where frames are written
+	 */
+	public MapRenderer(DstarMap map, Writer out){
+		this.map = map;
+		this.grid = map.getGrid();
+		this.out = out;
+	}
+
+	/**
+	 * Limits frames to a window around the robot, kept inside the map
+	 *
+	 * @param rows rows of the window, 0 for all rows
+	 * @param columns columns of the window, 0 for all columns
+	 */
+	public void setViewport(int rows, int columns){
+		if(rows < 0 || columns < 0){
+			throw new IllegalArgumentException("Bad viewport size: " + rows + " x " + columns);
+		}
+		viewportRows = rows;
+		viewportColumns = columns;
+		framed = false;
+	}
+
+	/**
+	 * Draws every cell of the viewport
+	 */
+	public void render(){
+		placeViewport();
+		buffer.setLength(0);
+
+		for(int row = 0; row < frameRows; row++){
+			appendSeparator();
+			for(int line = 0; line < 6; line++){
+				for(int column = 0; column < frameColumns; column++){
+					int cell = grid.cellId(top + row, left + column);
+					buffer.append('|');
+					appendLine(cell, line);
+					if(line == 0){
+						remember(row * frameColumns + column, cell);
+					}
+				}
+				buffer.append('|').append('\n');
+			}
+		}
+		appendSeparator();
+
+		framed = true;
+		flush();
+	}
+
+	/**
+	 * Draws only the cells of the viewport that changed since the last
+	 * frame, one line per cell.  The whole viewport is drawn if there was
+	 * no frame yet or the viewport moved with the robot
+	 *
+	 * @return number of cells drawn
+	 */
+	public int renderChanges(){
+		int oldTop = top;
+		int oldLeft = left;
+		int oldRows = frameRows;
+		int oldColumns = frameColumns;
+		placeViewport();
+
+		if(!framed || top != oldTop || left != oldLeft || frameRows != oldRows || frameColumns != oldColumns){
+			render();
+			return frameRows * frameColumns;
+		}
+
+		buffer.setLength(0);
+		int changed = 0;
+		for(int row = 0; row < frameRows; row++){
+			for(int column = 0; column < frameColumns; column++){
+				int index = row * frameColumns + column;
+				int cell = grid.cellId(top + row, left + column);
+				if(!hasChanged(index, cell)){
+					continue;
+				}
+				changed++;
+				remember(index, cell);
+
+				appendChange(cell);
+				buffer.append('\n');
+			}
+		}
+
+		if(changed > 0){
+			flush();
+		}
+		return changed;
+	}
+
+	/**
+	 * Works out the viewport around the robot.  The arrays holding the last
+	 * frame are only reallocated when the viewport grows
+	 */
+	private void placeViewport(){
+		int rows = grid.getRows();
+		int columns = grid.getColumns();
+		frameRows = viewportRows == 0 ? rows : Math.min(viewportRows, rows);
+		frameColumns = viewportColumns == 0 ? columns : Math.min(viewportColumns, columns);
+
+		int robot = map.getRobotId();
+		top = clamp(grid.rowOf(robot) - frameRows / 2, rows - frameRows);
+		left = clamp(grid.columnOf(robot) - frameColumns / 2, columns - frameColumns);
+
+		int cells = frameRows * frameColumns;
+		if(lastH == null || lastH.length < cells){
+			lastH = new double[cells];
+			lastK = new double[cells];
+			lastBackPointer = new int[cells];
+			lastTag = new byte[cells];
+			lastState = new byte[cells];
+			lastMarks = new byte[cells];
+		}
+	}
+
+	private static int clamp(int value, int max){
+		return Math.max(0, Math.min(value, max));
+	}
+
+	private byte marksOf(int cell){
+		byte marks = 0;
+		if(cell == map.getRobotId()){
+			marks |= MARK_ROBOT;
+		}
+		if(cell == map.getStartId()){
+			marks |= MARK_START;
+		}
+		if(cell == map.getGoalId()){
+			marks |= MARK_GOAL;
+		}
+		return marks;
+	}
+
+	private void remember(int index, int cell){
+		lastH[index] = grid.getH(cell);
+		lastK[index] = grid.getK(cell);
+		lastBackPointer[index] = grid.getBackPointer(cell);
+		lastTag[index] = grid.getTag(cell);
+		lastState[index] = grid.getState(cell);
+		lastMarks[index] = marksOf(cell);
+	}
+
+	private boolean hasChanged(int index, int cell){
+		return lastH[index] != grid.getH(cell)
+				|| lastK[index] != grid.getK(cell)
+				|| lastBackPointer[index] != grid.getBackPointer(cell)
+				|| lastTag[index] != grid.getTag(cell)
+				|| lastState[index] != grid.getState(cell)
+				|| lastMarks[index] != marksOf(cell);
+	}
+
+	/**
+	 * Appends one of the six lines of a cell, padded to the cell width
+	 */
+	private void appendLine(int cell, int line){
+		int start = buffer.length();
+		switch(line){
+		case 0:
+			// tag on the left, state on the right
+			String tag = GridStore.tagName(grid.getTag(cell));
+			buffer.append(tag);
+			pad(start + CELL_WIDTH - 1);
+			buffer.append((char) grid.getState(cell));
+			return;
+		case 1:
+			appendLabel(cell);
+			break;
+		case 2:
+			buffer.append("h:");
+			appendValue(grid.getH(cell));
+			break;
+		case 3:
+			buffer.append("k:");
+			appendValue(grid.getK(cell));
+			break;
+		case 4:
+			buffer.append("b: ");
+			if(grid.getBackPointer(cell) != GridStore.NO_CELL){
+				appendLabel(grid.getBackPointer(cell));
+			}
+			break;
+		default:
+			pad(start + 5);
+			buffer.append(cell == map.getRobotId() ? "(*)" : "   ");
+			pad(start + CELL_WIDTH - 1);
+			if(cell == map.getStartId()){
+				buffer.append('S');
+			}else if(cell == map.getGoalId()){
+				buffer.append('G');
+			}
+			break;
+		}
+		pad(start + CELL_WIDTH);
+	}
+
+	/**
+	 * Appends a changed cell on one line: row and column, tag, state, h, k,
+	 * back pointer and what else is on the cell
+	 */
+	private void appendChange(int cell){
+		buffer.append(grid.rowOf(cell)).append(',').append(grid.columnOf(cell)).append(": ");
+		buffer.append(GridStore.tagName(grid.getTag(cell))).append(' ').append((char) grid.getState(cell));
+		buffer.append(" h:");
+		appendValue(grid.getH(cell));
+		buffer.append(" k:");
+		appendValue(grid.getK(cell));
+		if(grid.getBackPointer(cell) != GridStore.NO_CELL){
+			buffer.append(" b: ");
+			appendLabel(grid.getBackPointer(cell));
+		}
+		if(cell == map.getRobotId()){
+			buffer.append(" (*)");
+		}
+		if(cell == map.getStartId()){
+			buffer.append(" S");
+		}else if(cell == map.getGoalId()){
+			buffer.append(" G");
+		}
+	}
+
+	/**
+	 * Appends spaces up to a buffer position
+	 */
+	private void pad(int end){
+		while(buffer.length() < end){
+			buffer.append(' ');
+		}
+	}
+
+	/**
+	 * Same label as GridStore.getLabel(), row followed by column
+	 */
+	private void appendLabel(int cell){
+		buffer.append(grid.rowOf(cell)).append(grid.columnOf(cell));
+	}
+
+	/**
+	 * Appends a value the way String.format("% ,.1f") does: a space or a
+	 * minus sign, grouped thousands and one decimal
+	 */
+	private void appendValue(double value){
+		buffer.append(value < 0 ? '-' : ' ');
+		if(Double.isNaN(value) || Double.isInfinite(value)){
+			buffer.append(Double.isNaN(value) ? "NaN" : "Infinity");
+			return;
+		}
+		long tenths = Math.round(Math.abs(value) * 10);
+		appendGrouped(tenths / 10);
+		buffer.append('.').append(tenths % 10);
+	}
+
+	private void appendGrouped(long value){
+		if(value < 1000){
+			buffer.append(value);
+			return;
+		}
+		appendGrouped(value / 1000);
+		buffer.append(',');
+		long rest = value % 1000;
+		if(rest < 100){
+			buffer.append('0');
+		}
+		if(rest < 10){
+			buffer.append('0');
+		}
+		buffer.append(rest);
+	}
+
+	private void appendSeparator(){
+		for(int i = 0; i < (CELL_WIDTH + 1) * frameColumns + 1; i++){
+			buffer.append('-');
+		}
+		buffer.append('\n');
+	}
+
+	/**
+	 * Writes the buffer out in one call
+	 */
+	private void flush(){
+		int length = buffer.length();
+		if(chars.length < length){
+			chars = new char[length];
+		}
+		buffer.getChars(0, length, chars, 0);
+		try{
+			out.write(chars, 0, length);
+			out.flush();
+		}catch(IOException e){
+			throw new IllegalStateException("Can't write the map", e);
+		}
+	}
+}
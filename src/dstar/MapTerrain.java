@@ -0,0 +1,21 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Kinds of terrain MapGenerator can build
+ */
+package dstar;
+
+public enum MapTerrain {
+
+	// every cell is blocked with the chosen density
+	CLUTTER,
+
+	// maze of 1 cell wide corridors with a few loops, every open cell is connected
+	MAZE,
+
+	// rectangular rooms joined by corridors, everything else is blocked
+	ROOMS,
+
+	// mostly open ground with round obstacles covering the chosen density
+	OPEN_FIELD
+}
@@ -0,0 +1,198 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * GridStore whose cells live in a memory mapped planner checkpoint, see
+ * PlannerCheckpoint.  h and k are kept in fixed-point units like
+ * FixedPointGridStore does.
+ *
+ * The file is mapped read-only and cells are paged in when they are first
+ * read.  The store does its own copy-on-write: the first write to a block
+ * of BLOCK_SIZE cells copies that block of the array to the heap, and the
+ * cell is read from the copy from then on, so planning never changes the
+ * checkpoint file.
+ */
+package dstar;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+class MappedGridStore extends GridStore {
+
+	// cells per copied block, 4 KB of an int array
+	static final int BLOCK_SHIFT = 10;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private ByteBuffer states;
+	private ByteBuffer tags;
+	private IntBuffer h;
+	private IntBuffer k;
+	private IntBuffer backPointers;
+
+	// heap copies of the blocks written so far, null while a block is
+	// still read from the file
+	private byte[][] stateBlocks;
+	private byte[][] tagBlocks;
+	private int[][] hBlocks;
+	private int[][] kBlocks;
+	private int[][] backPointerBlocks;
+	private long copiedBytes = 0;
+
+	/**
+	 * Builds a store over the cell arrays of a mapped checkpoint, each
+	 * buffer holding one entry per cell
+	 */
+	MappedGridStore(int rows, int columns, ByteBuffer states, ByteBuffer tags,
+			IntBuffer h, IntBuffer k, IntBuffer backPointers){
+		super(rows, columns, false);
+		this.states = states;
+		this.tags = tags;
+		this.h = h;
+		this.k = k;
+		this.backPointers = backPointers;
+
+		int blocks = (int) (((long) size() + BLOCK_MASK) >>> BLOCK_SHIFT);
+		stateBlocks = new byte[blocks][];
+		tagBlocks = new byte[blocks][];
+		hBlocks = new int[blocks][];
+		kBlocks = new int[blocks][];
+		backPointerBlocks = new int[blocks][];
+	}
+
+	/**
+	 * Other planners on the same map keep their search state in ordinary
+	 * arrays
+	 */
+	public GridStore newSearchStore(){
+		return new FixedPointGridStore(this);
+	}
+
+	/**
+	 * Only the copied blocks are on the heap, the rest is the mapped file
+	 */
+	public long estimateSearchBytes() {
+		return copiedBytes;
+	}
+
+	public double getH(int id) {
+		return FixedPointGridStore.toCost(getHUnits(id));
+	}
+
+	public void setH(int id, double value) {
+		setHUnits(id, FixedPointGridStore.toUnits(value));
+	}
+
+	public double getK(int id) {
+		return FixedPointGridStore.toCost(getKUnits(id));
+	}
+
+	public void setK(int id, double value) {
+		setKUnits(id, FixedPointGridStore.toUnits(value));
+	}
+
+	public int getHUnits(int id) {
+		int[] block = hBlocks[id >>> BLOCK_SHIFT];
+		return block == null ? h.get(id) : block[id & BLOCK_MASK];
+	}
+
+	public void setHUnits(int id, int units) {
+		int index = id >>> BLOCK_SHIFT;
+		if(hBlocks[index] == null){
+			hBlocks[index] = copy(h, index);
+		}
+		hBlocks[index][id & BLOCK_MASK] = units;
+		if(isTrackingDirtyTiles()){
+			markDirty(id);
+		}
+	}
+
+	public int getKUnits(int id) {
+		int[] block = kBlocks[id >>> BLOCK_SHIFT];
+		return block == null ? k.get(id) : block[id & BLOCK_MASK];
+	}
+
+	public void setKUnits(int id, int units) {
+		int index = id >>> BLOCK_SHIFT;
+		if(kBlocks[index] == null){
+			kBlocks[index] = copy(k, index);
+		}
+		kBlocks[index][id & BLOCK_MASK] = units;
+	}
+
+	public byte getTag(int id) {
+		byte[] block = tagBlocks[id >>> BLOCK_SHIFT];
+		return block == null ? tags.get(id) : block[id & BLOCK_MASK];
+	}
+
+	public void setTag(int id, byte value) {
+		int index = id >>> BLOCK_SHIFT;
+		if(tagBlocks[index] == null){
+			tagBlocks[index] = copy(tags, index);
+		}
+		tagBlocks[index][id & BLOCK_MASK] = value;
+	}
+
+	public byte getState(int id) {
+		byte[] block = stateBlocks[id >>> BLOCK_SHIFT];
+		return block == null ? states.get(id) : block[id & BLOCK_MASK];
+	}
+
+	public void setState(int id, byte value) {
+		int index = id >>> BLOCK_SHIFT;
+		if(stateBlocks[index] == null){
+			stateBlocks[index] = copy(states, index);
+		}
+		stateBlocks[index][id & BLOCK_MASK] = value;
+	}
+
+	public int getBackPointer(int id) {
+		int[] block = backPointerBlocks[id >>> BLOCK_SHIFT];
+		return block == null ? backPointers.get(id) : block[id & BLOCK_MASK];
+	}
+
+	public void setBackPointer(int id, int pointer) {
+		int index = id >>> BLOCK_SHIFT;
+		if(backPointerBlocks[index] == null){
+			backPointerBlocks[index] = copy(backPointers, index);
+		}
+		backPointerBlocks[index][id & BLOCK_MASK] = pointer;
+		if(isTrackingDirtyTiles()){
+			markDirty(id);
+		}
+	}
+
+	void copyTile(int tile, double[] tileH, int[] tileBackPointers){
+		int first = tile << TILE_SHIFT;
+		int count = Math.min(TILE_SIZE, size() - first);
+		for(int i = 0; i < count; i++){
+			tileH[i] = FixedPointGridStore.toCost(getHUnits(first + i));
+			tileBackPointers[i] = getBackPointer(first + i);
+		}
+	}
+
+	/**
+	 * Copies a block of a mapped int array to the heap
+	 */
+	private int[] copy(IntBuffer buffer, int index){
+		int first = index << BLOCK_SHIFT;
+		int[] block = new int[BLOCK_SIZE];
+		IntBuffer view = buffer.duplicate();
+		view.position(first);
+		view.get(block, 0, Math.min(BLOCK_SIZE, size() - first));
+		copiedBytes += 4 * BLOCK_SIZE;
+		return block;
+	}
+
+	/**
+	 * Copies a block of a mapped byte array to the heap
+	 */
+	private byte[] copy(ByteBuffer buffer, int index){
+		int first = index << BLOCK_SHIFT;
+		byte[] block = new byte[BLOCK_SIZE];
+		ByteBuffer view = buffer.duplicate();
+		view.position(first);
+		view.get(block, 0, Math.min(BLOCK_SIZE, size() - first));
+		copiedBytes += BLOCK_SIZE;
+		return block;
+	}
+}
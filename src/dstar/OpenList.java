@@ -0,0 +1,92 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Open list used by the D* path finder.  Entries are cell ids ordered by a
+ * key, the smallest key is at the head of the list.  Entries with equal keys
+ * are ordered by a second key.  A cell is on the list at most once, adding a
+ * cell that is already on the list changes its keys.
+ */
+package dstar;
+
+public interface OpenList {
+
+	/**
+	 * Adds a cell to the list, or changes its key if it is already on the list
+	 *
+	 * @param id cell id
+	 * @param key key used to order the list
+	 */
+	public void add(int id, double key);
+
+	/**
+	 * Adds a cell to the list with a tie breaking key, or changes the keys
+	 * of a cell that is already on the list
+	 *
+	 * @param id cell id
+	 * @param key key used to order the list
+	 * @param secondKey key used to order cells with equal keys
+	 */
+	public void add(int id, double key, double secondKey);
+
+	/**
+	 * Removes a cell from the list
+	 *
+	 * @param id cell id
+	 * @return true if the cell was on the list
+	 */
+	public boolean remove(int id);
+
+	/**
+	 * Removes and returns the cell with the smallest key
+	 *
+	 * @return cell id of the head of the list
+	 */
+	public int poll();
+
+	/**
+	 * Returns the cell with the smallest key without removing it
+	 *
+	 * @return cell id of the head, GridStore.NO_CELL if the list is empty
+	 */
+	public int peek();
+
+	/**
+	 * Returns the smallest key on the list
+	 *
+	 * @return key of the head of the list
+	 */
+	public double peekKey();
+
+	/**
+	 * Returns the second key of the head of the list
+	 *
+	 * @return second key of the head of the list
+	 */
+	public double peekSecondKey();
+
+	/**
+	 * Returns the key of a cell on the list
+	 *
+	 * @param id cell id
+	 * @return key of the cell
+	 */
+	public double getKey(int id);
+
+	public boolean contains(int id);
+
+	public boolean isEmpty();
+
+	public int size();
+
+	/**
+	 * Removes every cell from the list
+	 */
+	public void clear();
+
+	/**
+	 * Returns the cells on the list in no particular order
+	 *
+	 * @return array of cell ids
+	 */
+	public int[] toArray();
+}
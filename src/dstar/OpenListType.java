@@ -0,0 +1,28 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Open list implementations that DstarPathFinder can be built with
+ */
+package dstar;
+
+public enum OpenListType {
+
+	// java.util.PriorityQueue, re-keying a cell is a linear remove and an add
+	PRIORITY_QUEUE,
+
+	// binary heap that tracks the position of every cell, re-keying is O(log n)
+	INDEXED_HEAP;
+
+	/**
+	 * Creates an empty open list of this type
+	 *
+	 * @param cells number of cells in the map
+	 * @return new open list
+	 */
+	public OpenList create(int cells){
+		if(this == PRIORITY_QUEUE){
+			return new PriorityQueueOpenList(cells);
+		}
+		return new IndexedBinaryHeap(cells);
+	}
+}
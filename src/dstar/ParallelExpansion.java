@@ -0,0 +1,456 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Multi-threaded version of the initial expansion from the goal, used by
+ * DstarPathFinder.computeInitialPlan(threads).
+ *
+ * The initial expansion is a Dijkstra search: every state is expanded with
+ * k == h, in order of h.  Every edge costs at least NORMAL_COST, so all
+ * states whose h has the same integer part can be expanded at the same
+ * time, none of them can lower another.  The search runs through these
+ * buckets in order with one bucket per round, each thread expanding the
+ * states of the rows it owns.  Rows are handed out in stripes of 64, a
+ * thread updates only its own states and sends the costs it works out for
+ * states of other stripes to their owner, which applies them after the
+ * next barrier.
+ *
+ * h is kept in the same fixed-point units as DstarPathFinder and capped
+ * like insert() does, so every state ends up with the same h the
+ * sequential loop gives it.  Back pointers are worked out afterwards by
+ * replaying the sequential rule over each state's expanded neighbors in
+ * order of h.  Where neighbors have the same h the sequential
+ * choice depends on the order of the open list, the replay takes them in
+ * neighbor order.
+ */
+package dstar;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+class ParallelExpansion {
+
+	// rows per stripe, matches the chunk size of TiledGridStore
+	private static final int STRIPE_SHIFT = 6;
+
+	private static final int INFINITY_UNITS = CostTable.INFINITY_UNITS;
+
+	// bucket of the states capped at infinity, expanded after every finite one
+	private static final int INFINITY_BUCKET = bucketOf(INFINITY_UNITS);
+
+	private DstarMap map;
+	private CostTable costs;
+	private int columns;
+	private int cells;
+
+	// search state of every cell, written only by the thread owning the
+	// cell.  h is in units
+	private int[] h;
+	private byte[] tag;
+	private int[] backPointer;
+
+	private Worker[] workers;
+	private CyclicBarrier select;
+	private CyclicBarrier exchange;
+
+	// bucket being expanded, set by the select barrier
+	private int bucket = 0;
+	private boolean done = false;
+	private int robot;
+	private int goal;
+
+	// first failure of a worker thread
+	private volatile Throwable failure;
+
+	/**
+	 * @param map map to expand
+	 * @param costs edge costs of the map
+	 * @param threads number of threads to expand with
+	 */
+	ParallelExpansion(DstarMap map, CostTable costs, int threads){
+		if(threads < 1){
+			throw new IllegalArgumentException("Need at least one thread: " + threads);
+		}
+
+		this.map = map;
+		this.costs = costs;
+		GridStore grid = map.getGrid();
+		this.columns = grid.getColumns();
+		this.cells = grid.size();
+
+		h = new int[cells];
+		tag = new byte[cells];
+		backPointer = new int[cells];
+		Arrays.fill(backPointer, GridStore.NO_CELL);
+
+		// no point in more threads than stripes
+		int stripes = ((grid.getRows() - 1) >> STRIPE_SHIFT) + 1;
+		threads = Math.min(threads, stripes);
+
+		workers = new Worker[threads];
+		for(int i = 0; i < threads; i++){
+			workers[i] = new Worker(i, threads);
+		}
+
+		select = new CyclicBarrier(threads, new Runnable(){
+			public void run(){
+				selectBucket();
+			}
+		});
+		exchange = new CyclicBarrier(threads);
+	}
+
+	/**
+	 * Expands from the goal until the robot's state is closed, the robot is
+	 * cut off from the goal or every state is closed
+	 *
+	 * @param goal cell id of the goal
+	 * @param robot cell id of the robot
+	 */
+	void run(int goal, int robot){
+		this.goal = goal;
+		this.robot = robot;
+
+		h[goal] = 0;
+		tag[goal] = GridStore.TAG_OPEN;
+		workers[ownerOf(goal)].buckets.add(0, goal);
+
+		Thread[] threads = new Thread[workers.length - 1];
+		for(int i = 0; i < threads.length; i++){
+			threads[i] = new Thread(workers[i + 1], "dstar-expansion-" + (i + 1));
+			threads[i].start();
+		}
+		workers[0].run();
+
+		for(int i = 0; i < threads.length; i++){
+			try{
+				threads[i].join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while expanding", e);
+			}
+		}
+
+		if(failure != null){
+			throw new IllegalStateException("Parallel expansion failed", failure);
+		}
+	}
+
+	int getHUnits(int cell){
+		return h[cell];
+	}
+
+	byte getTag(int cell){
+		return tag[cell];
+	}
+
+	int getBackPointer(int cell){
+		return backPointer[cell];
+	}
+
+	/**
+	 * Returns the number of expanded states
+	 *
+	 * @return number of closed states
+	 */
+	long getExpansions(){
+		long expansions = 0;
+		for(Worker worker : workers){
+			expansions += worker.expansions;
+		}
+		return expansions;
+	}
+
+	/**
+	 * Runs once per round while every thread waits on the select barrier.
+	 * Stops where the sequential loop would: once the robot is closed or
+	 * it has been reached with an infinite cost
+	 */
+	private void selectBucket(){
+		if(failure != null || tag[robot] == GridStore.TAG_CLOSED
+				|| (tag[robot] != GridStore.TAG_NEW && h[robot] >= INFINITY_UNITS)){
+			done = true;
+			return;
+		}
+
+		int last = -1;
+		for(Worker worker : workers){
+			last = Math.max(last, worker.buckets.highest);
+		}
+		for(int next = bucket; next <= last; next++){
+			for(Worker worker : workers){
+				if(!worker.buckets.isEmpty(next)){
+					bucket = next;
+					return;
+				}
+			}
+		}
+		for(Worker worker : workers){
+			if(!worker.buckets.isEmpty(INFINITY_BUCKET)){
+				bucket = INFINITY_BUCKET;
+				return;
+			}
+		}
+		done = true;
+	}
+
+	private int ownerOf(int cell){
+		return ((cell / columns) >> STRIPE_SHIFT) % workers.length;
+	}
+
+	/**
+	 * Cost of reaching the goal from a neighbor through a state in units,
+	 * capped the way processState and insert do it
+	 */
+	private int costThrough(int state, int neighbor){
+		return Math.min(h[state] + costs.getUnits(state, neighbor), INFINITY_UNITS);
+	}
+
+	/**
+	 * Bucket of a cost, its integer part
+	 */
+	private static int bucketOf(int units){
+		return units / GridStore.COST_SCALE;
+	}
+
+	/**
+	 * One expanding thread, owning every stripe whose index modulo the
+	 * number of threads is its id
+	 */
+	private class Worker implements Runnable {
+
+		int id;
+		long expansions = 0;
+		Buckets buckets = new Buckets();
+		int[] neighbors = new int[8];
+
+		// costs for states owned by other threads, indexed by the owner
+		Messages[] outbox;
+
+		Worker(int id, int threads){
+			this.id = id;
+			outbox = new Messages[threads];
+			for(int i = 0; i < threads; i++){
+				outbox[i] = new Messages();
+			}
+		}
+
+		public void run(){
+			try{
+				while(true){
+					select.await();
+					if(done){
+						break;
+					}
+					expand(bucket);
+					exchange.await();
+					deliver();
+				}
+				setBackPointers();
+			}catch(InterruptedException e){
+				fail(e);
+			}catch(BrokenBarrierException e){
+				// another thread failed and broke the barriers
+			}catch(RuntimeException e){
+				fail(e);
+			}
+		}
+
+		private void fail(Throwable e){
+			if(failure == null){
+				failure = e;
+			}
+			select.reset();
+			exchange.reset();
+		}
+
+		/**
+		 * Expands the states of this thread in a bucket.  Cells that were
+		 * lowered into an earlier bucket or already closed are skipped
+		 */
+		private void expand(int current){
+			IntList list = buckets.get(current);
+			// capped costs land in the bucket being expanded, so the size is
+			// read on every pass
+			for(int i = 0; list != null && i < list.size; i++){
+				int state = list.items[i];
+				if(tag[state] == GridStore.TAG_CLOSED || bucketOf(h[state]) != current){
+					continue;
+				}
+				tag[state] = GridStore.TAG_CLOSED;
+				expansions++;
+
+				int count = map.getNeighbors(state, neighbors);
+				for(int n = 0; n < count; n++){
+					int neighbor = neighbors[n];
+					int owner = ownerOf(neighbor);
+					if(owner == id){
+						relax(neighbor, costThrough(state, neighbor));
+					}else{
+						outbox[owner].add(neighbor, costThrough(state, neighbor));
+					}
+				}
+			}
+			buckets.clear(current);
+		}
+
+		/**
+		 * Applies the costs other threads worked out for states of this one
+		 */
+		private void deliver(){
+			for(Worker sender : workers){
+				Messages messages = sender.outbox[id];
+				for(int i = 0; i < messages.size; i++){
+					relax(messages.cells[i], messages.values[i]);
+				}
+				messages.size = 0;
+			}
+		}
+
+		/**
+		 * Lowers the cost of a state that isn't closed yet
+		 */
+		private void relax(int state, int value){
+			if(tag[state] == GridStore.TAG_CLOSED){
+				return;
+			}
+			if(tag[state] == GridStore.TAG_NEW || value < h[state]){
+				h[state] = value;
+				tag[state] = GridStore.TAG_OPEN;
+				buckets.add(bucketOf(value), state);
+			}
+		}
+
+		/**
+		 * Replays the sequential back pointer rule for every reached state
+		 * of this thread: expanded neighbors in order of h, the first one
+		 * sets the back pointer and a later one only takes over if its
+		 * cost is below the current h
+		 */
+		private void setBackPointers(){
+			int[] order = new int[8];
+			long stripeCells = (long) columns << STRIPE_SHIFT;
+			for(long first = id * stripeCells; first < cells; first += workers.length * stripeCells){
+				int last = (int) Math.min(first + stripeCells, cells);
+				for(int state = (int) first; state < last; state++){
+					if(tag[state] != GridStore.TAG_NEW && state != goal){
+						setBackPointer(state, order);
+					}
+				}
+			}
+		}
+
+		private void setBackPointer(int state, int[] order){
+			int count = map.getNeighbors(state, neighbors);
+			int candidates = 0;
+			for(int n = 0; n < count; n++){
+				int neighbor = neighbors[n];
+				if(tag[neighbor] != GridStore.TAG_CLOSED
+						|| (h[neighbor] >= h[state] && h[state] < INFINITY_UNITS)){
+					continue;
+				}
+				// insertion sort on h, equal h stay in neighbor order
+				int at = candidates++;
+				while(at > 0 && h[order[at - 1]] > h[neighbor]){
+					order[at] = order[at - 1];
+					at--;
+				}
+				order[at] = neighbor;
+			}
+
+			int current = 0;
+			for(int c = 0; c < candidates; c++){
+				int neighbor = order[c];
+				int cost = Math.min(h[neighbor] + costs.getUnits(neighbor, state), INFINITY_UNITS);
+				if(c == 0 || current > cost){
+					backPointer[state] = neighbor;
+					current = cost;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists of states per integer part of h, allocated when first used.
+	 * The table grows with the highest finite h seen, states capped at
+	 * infinity get a list of their own
+	 */
+	private static class Buckets {
+		IntList[] lists = new IntList[64];
+		IntList capped;
+
+		// highest finite bucket a state was added to
+		int highest = -1;
+
+		void add(int bucket, int state){
+			IntList list = get(bucket);
+			if(list == null){
+				list = new IntList();
+				if(bucket == INFINITY_BUCKET){
+					capped = list;
+				}else{
+					if(bucket >= lists.length){
+						lists = Arrays.copyOf(lists, Math.max(lists.length * 2, bucket + 1));
+					}
+					lists[bucket] = list;
+				}
+			}
+			list.add(state);
+			if(bucket != INFINITY_BUCKET && bucket > highest){
+				highest = bucket;
+			}
+		}
+
+		IntList get(int bucket){
+			if(bucket == INFINITY_BUCKET){
+				return capped;
+			}
+			return bucket < lists.length ? lists[bucket] : null;
+		}
+
+		boolean isEmpty(int bucket){
+			IntList list = get(bucket);
+			return list == null || list.size == 0;
+		}
+
+		void clear(int bucket){
+			// expanded buckets are not used again, except the capped one
+			if(bucket == INFINITY_BUCKET){
+				capped = null;
+			}else{
+				lists[bucket] = null;
+			}
+		}
+	}
+
+	private static class IntList {
+		int[] items = new int[16];
+		int size = 0;
+
+		void add(int item){
+			if(size == items.length){
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = item;
+		}
+	}
+
+	/**
+	 * Costs sent from one thread to another, cleared by the receiver
+	 */
+	private static class Messages {
+		int[] cells = new int[16];
+		int[] values = new int[16];
+		int size = 0;
+
+		void add(int cell, int value){
+			if(size == cells.length){
+				cells = Arrays.copyOf(cells, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			cells[size] = cell;
+			values[size] = value;
+			size++;
+		}
+	}
+}
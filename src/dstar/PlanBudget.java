@@ -0,0 +1,71 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * How much work one call of DstarPathFinder.step() may do: a number of
+ * expanded states, a time, or both.  A step stops at whichever runs out
+ * first, but always expands at least one state so a plan gets done over
+ * enough steps.
+ */
+package dstar;
+
+public class PlanBudget {
+
+	// no limit on expansions or time
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private long maxExpansions;
+	private long maxNanos;
+
+	/**
+	 * @param maxExpansions states a step may expand, UNLIMITED for no limit
+	 * @param maxNanos time a step may take, UNLIMITED for no limit
+	 */
+	public PlanBudget(long maxExpansions, long maxNanos){
+		if(maxExpansions <= 0 || maxNanos <= 0){
+			throw new IllegalArgumentException("Budget must be positive");
+		}
+		this.maxExpansions = maxExpansions;
+		this.maxNanos = maxNanos;
+	}
+
+	/**
+	 * Budget of a number of expanded states
+	 *
+	 * @param maxExpansions states a step may expand
+	 * @return the budget
+	 */
+	public static PlanBudget expansions(long maxExpansions){
+		return new PlanBudget(maxExpansions, UNLIMITED);
+	}
+
+	/**
+	 * Budget of a time, the deadline of a step is its start plus this time
+	 *
+	 * @param maxNanos time a step may take
+	 * @return the budget
+	 */
+	public static PlanBudget nanos(long maxNanos){
+		return new PlanBudget(UNLIMITED, maxNanos);
+	}
+
+	public long getMaxExpansions() {
+		return maxExpansions;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * Checks a step against the budget.  The clock is only read for a
+	 * budget with a time
+	 *
+	 * @param expansions states the step has expanded
+	 * @param startTime System.nanoTime() when the step started
+	 * @return true if the step has to stop
+	 */
+	boolean isUsedUp(long expansions, long startTime){
+		return expansions >= maxExpansions
+				|| (maxNanos != UNLIMITED && System.nanoTime() - startTime >= maxNanos);
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Outcome of a planning call (initial plan or replan)
+ */
+package dstar;
+
+public class PlanResult {
+
+	public enum Status {
+		// the robot has a path to the goal
+		PLANNED,
+		// there is no path from the robot to the goal
+		UNREACHABLE
+	}
+
+	private Status status;
+	private long expansions;
+	private long elapsedNanos;
+	private double pathCost;
+	private double epsilon;
+	private boolean complete;
+
+	/**
+	 * Result of an optimal plan
+	 *
+	 * @param status whether a path was found
+	 * @param expansions number of states expanded by this call
+	 * @param elapsedNanos time spent in this call
+	 * @param pathCost cost of the path from the robot to the goal
+	 */
+	public PlanResult(Status status, long expansions, long elapsedNanos, double pathCost){
+		this(status, expansions, elapsedNanos, pathCost, 1);
+	}
+
+	/**
+	 * @param status whether a path was found
+	 * @param expansions number of states expanded by this call
+	 * @param elapsedNanos time spent in this call
+	 * @param pathCost cost of the path from the robot to the goal
+	 * @param epsilon bound on the path cost as a multiple of the optimal cost
+	 */
+	public PlanResult(Status status, long expansions, long elapsedNanos, double pathCost, double epsilon){
+		this(status, expansions, elapsedNanos, pathCost, epsilon, true);
+	}
+
+	/**
+	 * Result of a budgeted step that may have stopped before the plan was
+	 * done, see DstarPathFinder.step()
+	 *
+	 * @param status whether a path was found
+	 * @param expansions number of states expanded by this call
+	 * @param elapsedNanos time spent in this call
+	 * @param pathCost cost of the path from the robot to the goal
+	 * @param epsilon bound on the path cost as a multiple of the optimal cost
+	 * @param complete false if the plan ran out of budget
+	 */
+	public PlanResult(Status status, long expansions, long elapsedNanos, double pathCost, double epsilon, boolean complete){
+		this.status = status;
+		this.expansions = expansions;
+		this.elapsedNanos = elapsedNanos;
+		this.pathCost = pathCost;
+		this.epsilon = epsilon;
+		this.complete = complete;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true if the robot has a path to the goal
+	 *
+	 * @return true if the status is PLANNED
+	 */
+	public boolean isReachable() {
+		return status == Status.PLANNED;
+	}
+
+	public long getExpansions() {
+		return expansions;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getPathCost() {
+		return pathCost;
+	}
+
+	/**
+	 * Returns how far from optimal the path may be: its cost is at most
+	 * epsilon times the optimal cost.  Only Anytime D* plans with an
+	 * epsilon above 1
+	 *
+	 * @return epsilon of the plan, 1 for an optimal plan
+	 */
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	/**
+	 * Returns false if a budgeted step stopped before the plan was done.
+	 * The status and cost of a partial plan are only as far as the search
+	 * has got, the next step carries on with it
+	 *
+	 * @return true if the plan is done
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public String toString() {
+		return status + " expansions=" + expansions + " cost=" + String.format("%.1f", pathCost)
+				+ (epsilon > 1 ? " epsilon=" + epsilon : "") + (complete ? "" : " partial") + " time=" + (elapsedNanos / 1000) + "us";
+	}
+}
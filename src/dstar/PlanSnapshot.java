@@ -0,0 +1,135 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Immutable copy of the h values and back pointers of a plan, as published
+ * by a SnapshotPublisher.  Any thread can read a snapshot while the planner
+ * thread keeps replanning, it always holds one complete plan.
+ *
+ * The cells are kept in tiles of consecutive cell ids.  A new snapshot only
+ * copies the tiles that changed since the one before it and shares all
+ * other tiles with it, tiles are never written once published.
+ */
+package dstar;
+
+import java.util.Arrays;
+
+public class PlanSnapshot {
+
+	private long version;
+	private int rows;
+	private int columns;
+	private int robot;
+	private int goal;
+
+	// h values and back pointers per tile, a null tile was never written
+	// and holds the defaults of a new GridStore
+	private double[][] h;
+	private int[][] backPointer;
+
+	PlanSnapshot(long version, int rows, int columns, int robot, int goal, double[][] h, int[][] backPointer){
+		this.version = version;
+		this.rows = rows;
+		this.columns = columns;
+		this.robot = robot;
+		this.goal = goal;
+		this.h = h;
+		this.backPointer = backPointer;
+	}
+
+	/**
+	 * Returns the version of the snapshot, every published snapshot has a
+	 * higher version than the one before it
+	 *
+	 * @return snapshot version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the cell the robot was on when the snapshot was taken
+	 *
+	 * @return cell id of the robot
+	 */
+	public int getRobotId() {
+		return robot;
+	}
+
+	public int getGoalId() {
+		return goal;
+	}
+
+	public double getH(int id) {
+		double[] tile = h[id >>> GridStore.TILE_SHIFT];
+		return tile == null ? 0 : tile[id & (GridStore.TILE_SIZE - 1)];
+	}
+
+	public int getBackPointer(int id) {
+		int[] tile = backPointer[id >>> GridStore.TILE_SHIFT];
+		return tile == null ? GridStore.NO_CELL : tile[id & (GridStore.TILE_SIZE - 1)];
+	}
+
+	/**
+	 * Returns the cost of the robot's path to the goal
+	 *
+	 * @return path cost, INFINITY_COST if the robot had no path
+	 */
+	public double getPathCost() {
+		return isReachable(robot) ? getH(robot) : DstarPathFinder.INFINITY_COST;
+	}
+
+	/**
+	 * Returns the robot's path, from the robot's cell to the goal
+	 *
+	 * @return cell ids of the path, empty if the robot had no path
+	 */
+	public int[] getPath() {
+		return getPath(robot);
+	}
+
+	/**
+	 * Follows the back pointers from any cell to the goal
+	 *
+	 * @param from cell id to start from
+	 * @return cell ids of the path, empty if the cell had no path
+	 */
+	public int[] getPath(int from) {
+		if(!isReachable(from)){
+			return new int[0];
+		}
+
+		int[] path = new int[16];
+		int length = 0;
+		int cell = from;
+		for(int steps = 0; steps < rows * columns && cell != GridStore.NO_CELL; steps++){
+			if(length == path.length){
+				path = Arrays.copyOf(path, length * 2);
+			}
+			path[length++] = cell;
+			if(cell == goal){
+				break;
+			}
+			cell = getBackPointer(cell);
+		}
+		return Arrays.copyOf(path, length);
+	}
+
+	/**
+	 * A cell has a path once it has a back pointer and a cost below
+	 * infinity, the goal itself always has one
+	 */
+	private boolean isReachable(int cell){
+		if(cell == goal){
+			return true;
+		}
+		return getBackPointer(cell) != GridStore.NO_CELL && getH(cell) < Double.POSITIVE_INFINITY;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Counts of one initial plan or replan, handed to PlannerMetrics.  Cost
+ * changes reported between two plans are counted with the plan after them.
+ *
+ * RAISE and LOWER are the two kinds of expanded states: a RAISE state has
+ * a k below its h (for D* Lite, an underconsistent state), its cost went up
+ * and the increase is passed on.  A LOWER state has k == h (an
+ * overconsistent state for D* Lite) and passes on a lower cost.
+ */
+package dstar;
+
+public class PlanStatistics {
+
+	long elapsedNanos;
+	long expansions;
+	long raiseExpansions;
+	long lowerExpansions;
+	long inserts;
+	long reopenedStates;
+	int openListPeak;
+	boolean reachable;
+
+	/**
+	 * Returns the time taken by the plan
+	 *
+	 * @return elapsed nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getExpansions() {
+		return expansions;
+	}
+
+	/**
+	 * Returns the number of expanded RAISE states
+	 *
+	 * @return RAISE expansions
+	 */
+	public long getRaiseExpansions() {
+		return raiseExpansions;
+	}
+
+	/**
+	 * Returns the number of expanded LOWER states
+	 *
+	 * @return LOWER expansions
+	 */
+	public long getLowerExpansions() {
+		return lowerExpansions;
+	}
+
+	/**
+	 * Returns the number of times a state was put on the open list or had
+	 * its key changed there
+	 *
+	 * @return open list inserts
+	 */
+	public long getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * Returns the number of states put back on the open list by cost
+	 * changes
+	 *
+	 * @return re-opened states
+	 */
+	public long getReopenedStates() {
+		return reopenedStates;
+	}
+
+	/**
+	 * Returns the largest size the open list reached
+	 *
+	 * @return open list peak size
+	 */
+	public int getOpenListPeak() {
+		return openListPeak;
+	}
+
+	public boolean isReachable() {
+		return reachable;
+	}
+
+	/**
+	 * Clears the counts for the next plan, the open list peak starts from
+	 * the current size of the open list
+	 */
+	void reset(int openListSize){
+		elapsedNanos = 0;
+		expansions = 0;
+		raiseExpansions = 0;
+		lowerExpansions = 0;
+		inserts = 0;
+		reopenedStates = 0;
+		openListPeak = openListSize;
+		reachable = false;
+	}
+
+	public String toString() {
+		return "expansions=" + expansions + " raise=" + raiseExpansions + " lower=" + lowerExpansions
+				+ " inserts=" + inserts + " reopened=" + reopenedStates + " openListPeak=" + openListPeak
+				+ " time=" + (elapsedNanos / 1000) + "us";
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * PlannerListener with empty methods, extend it and override only the
+ * events you care about
+ */
+package dstar;
+
+public abstract class PlannerAdapter implements PlannerListener {
+
+	public void planStarted(DstarPlanner planner) {
+	}
+
+	public void stateExpanded(DstarPlanner planner, int cell) {
+	}
+
+	public void initialPlanComputed(DstarPlanner planner, PlanResult result) {
+	}
+
+	public void obstacleReported(DstarPlanner planner, int cell) {
+	}
+
+	public void replanned(DstarPlanner planner, PlanResult result) {
+	}
+
+	public void robotMoved(DstarPlanner planner, int cell) {
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Writes the state of a DstarPathFinder to a checkpoint file and restores
+ * a planner from it, so a restarted process carries on replanning where
+ * the last one stopped instead of expanding the whole map from the goal
+ * again.
+ *
+ * The file is a 64 byte header followed by the cell arrays, every value
+ * little endian so the arrays can be read straight from the mapped file:
+ *
+ *   int   magic "DSCK"
+ *   short version
+ *   byte  search mode, 0 = BASIC, 1 = FOCUSED
+ *   byte  1 if a replan was pending
+ *   int   rows
+ *   int   columns
+ *   int   start cell id
+ *   int   goal cell id
+ *   int   robot cell id
+ *   int   cost units per cost (GridStore.COST_SCALE)
+ *   int   accumulated Focused D* bias, in units
+ *   int   number of open states
+ *   int   number of overridden edge costs
+ *   long  expansions
+ *   byte[12] reserved
+ *   byte[] cell states (O, B or U), one per cell
+ *   byte[] tags, one per cell, padded to a multiple of 4 bytes
+ *   int[] h in units, one per cell, CostTable.INFINITY_UNITS if unreachable
+ *   int[] k in units, one per cell
+ *   int[] back pointers, one per cell
+ *   open states in open list order: int cell id, int k in units
+ *   overridden costs: int first cell, int second cell, double cost
+ *
+ * restore() maps the file read-only and plans on the mapped cells (see
+ * MappedGridStore, which copies blocks to the heap as they are written),
+ * only the open list and the cost overrides are read up front.  Open
+ * states carry their k, so the open list is rebuilt from one
+ * sequential read without touching the cell arrays.  The planner's writes
+ * never reach the file.
+ *
+ * A restored planner keeps its file mapped for as long as it lives, cells
+ * it has not written yet are still read from it.  save() therefore never
+ * writes over a checkpoint in place: it writes a temporary file next to it
+ * and moves that over the old one, which stays readable through the
+ * mapping until the planner is gone.
+ */
+package dstar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class PlannerCheckpoint {
+
+	public static final int MAGIC = 0x4453434B;	// "DSCK"
+	// version 2 stores unreachable h and k as CostTable.INFINITY_UNITS
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 64;
+
+	// checkpoints are written in blocks of this many bytes
+	private static final int WRITE_BLOCK = 1 << 16;
+
+	// bytes per open state and per overridden cost
+	private static final int OPEN_SIZE = 4 + 4;
+	private static final int OVERRIDE_SIZE = 4 + 4 + 8;
+
+	private PlannerCheckpoint(){
+	}
+
+	/**
+	 * Writes the state of a planner to a checkpoint file, replacing any
+	 * old one at the path
+	 *
+	 * @param planner planner to save, not serving a fleet
+	 * @param filename path of the checkpoint
+	 * @throws IOException if the file cannot be written or would be too
+	 *         large for restore() to map
+	 */
+	public static void save(DstarPathFinder planner, String filename) throws IOException {
+		if(planner.hasFleet()){
+			throw new IllegalStateException("A planner serving a fleet can't be checkpointed");
+		}
+
+		int[] open = planner.getOpenStates();
+
+		CostTable costs = planner.getCosts();
+		int overrides = costs.size();
+		int[] from = new int[overrides];
+		int[] to = new int[overrides];
+		double[] values = new double[overrides];
+		costs.copyOverrides(from, to, values);
+
+		long length = fileLength(planner.getMap().getGrid().size(), open.length, overrides);
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("Checkpoint of " + length + " bytes is too large to map");
+		}
+
+		File target = new File(filename).getAbsoluteFile();
+		File temporary = File.createTempFile("." + target.getName() + ".", ".tmp", target.getParentFile());
+		boolean moved = false;
+		try{
+			write(planner, temporary, open, from, to, values);
+			Files.move(temporary.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		}finally{
+			if(!moved){
+				temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes a checkpoint to a new file
+	 */
+	private static void write(DstarPathFinder planner, File target, int[] open,
+			int[] from, int[] to, double[] values) throws IOException {
+		DstarMap map = planner.getMap();
+		GridStore grid = map.getGrid();
+		int size = grid.size();
+		int overrides = from.length;
+
+		RandomAccessFile file = new RandomAccessFile(target, "rw");
+		try{
+			FileChannel channel = file.getChannel();
+
+			ByteBuffer block = ByteBuffer.allocate(WRITE_BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+			block.putInt(MAGIC);
+			block.putShort(VERSION);
+			block.put((byte) (planner.isFocused() ? 1 : 0));
+			// a partial initial plan is restored as a pending replan, which
+			// only stops once the robot is settled as well
+			block.put((byte) (planner.isPlanPending() ? 1 : 0));
+			block.putInt(grid.getRows());
+			block.putInt(grid.getColumns());
+			block.putInt(map.getStartId());
+			block.putInt(map.getGoalId());
+			block.putInt(map.getRobotId());
+			block.putInt(GridStore.COST_SCALE);
+			block.putInt(planner.getAccumulatedBias());
+			block.putInt(open.length);
+			block.putInt(overrides);
+			block.putLong(planner.getExpansions());
+			block.position(HEADER_SIZE);
+
+			for(int id = 0; id < size; id++){
+				room(channel, block, 1);
+				block.put(grid.getState(id));
+			}
+			for(int id = 0; id < tagsSize(size); id++){
+				room(channel, block, 1);
+				block.put(id < size ? grid.getTag(id) : 0);
+			}
+			for(int id = 0; id < size; id++){
+				room(channel, block, 4);
+				block.putInt(grid.getHUnits(id));
+			}
+			for(int id = 0; id < size; id++){
+				room(channel, block, 4);
+				block.putInt(grid.getKUnits(id));
+			}
+			for(int id = 0; id < size; id++){
+				room(channel, block, 4);
+				block.putInt(grid.getBackPointer(id));
+			}
+			for(int i = 0; i < open.length; i++){
+				room(channel, block, OPEN_SIZE);
+				block.putInt(open[i]);
+				block.putInt(grid.getKUnits(open[i]));
+			}
+			for(int i = 0; i < overrides; i++){
+				room(channel, block, OVERRIDE_SIZE);
+				block.putInt(from[i]);
+				block.putInt(to[i]);
+				block.putDouble(values[i]);
+			}
+			writeBlock(channel, block);
+		}finally{
+			file.close();
+		}
+	}
+
+	/**
+	 * Restores a planner using an indexed heap for the open list
+	 *
+	 * @param filename path of the checkpoint
+	 * @return the planner, ready to replan
+	 * @throws IOException if the file cannot be read or is not a valid checkpoint
+	 */
+	public static DstarPathFinder restore(String filename) throws IOException {
+		return restore(filename, OpenListType.INDEXED_HEAP);
+	}
+
+	/**
+	 * Restores a planner from a checkpoint.  Its map is backed by the
+	 * mapped file, the robot is on the cell it was on when the checkpoint
+	 * was written
+	 *
+	 * @param filename path of the checkpoint
+	 * @param openListType open list implementation of the planner
+	 * @return the planner, ready to replan
+	 * @throws MapFormatException if the file is not a valid checkpoint
+	 * @throws IOException if the file cannot be read
+	 */
+	public static DstarPathFinder restore(String filename, OpenListType openListType) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		MappedByteBuffer buffer;
+		long length;
+		try{
+			FileChannel channel = file.getChannel();
+			length = channel.size();
+			if(length < HEADER_SIZE){
+				throw new MapFormatException("Checkpoint is shorter than its header");
+			}
+			if(length > Integer.MAX_VALUE){
+				throw new MapFormatException("Checkpoint is too large to map");
+			}
+
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}finally{
+			file.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if(buffer.getInt(0) != MAGIC){
+			throw new MapFormatException("Not a planner checkpoint");
+		}
+		if(buffer.getShort(4) != VERSION){
+			throw new MapFormatException("Unsupported checkpoint version " + buffer.getShort(4));
+		}
+		if(buffer.getInt(28) != GridStore.COST_SCALE){
+			throw new MapFormatException("Checkpoint uses " + buffer.getInt(28) + " cost units, expected " + GridStore.COST_SCALE);
+		}
+
+		SearchMode searchMode = buffer.get(6) == 1 ? SearchMode.FOCUSED : SearchMode.BASIC;
+		boolean pending = buffer.get(7) == 1;
+		int rows = buffer.getInt(8);
+		int columns = buffer.getInt(12);
+		int start = buffer.getInt(16);
+		int goal = buffer.getInt(20);
+		int robot = buffer.getInt(24);
+		int bias = buffer.getInt(32);
+		int openCount = buffer.getInt(36);
+		int overrides = buffer.getInt(40);
+		long expansions = buffer.getLong(44);
+
+		long cells = (long) rows * columns;
+		if(rows <= 0 || columns <= 0 || cells > Integer.MAX_VALUE){
+			throw new MapFormatException("Invalid map size " + rows + " x " + columns);
+		}
+		if(openCount < 0 || openCount > cells || overrides < 0){
+			throw new MapFormatException("Invalid checkpoint header");
+		}
+		int size = (int) cells;
+		long tagsOffset = HEADER_SIZE + (long) size;
+		long hOffset = tagsOffset + tagsSize(size);
+		long kOffset = hOffset + 4L * size;
+		long backPointerOffset = kOffset + 4L * size;
+		long openOffset = backPointerOffset + 4L * size;
+		long overrideOffset = openOffset + (long) OPEN_SIZE * openCount;
+		if(length < fileLength(size, openCount, overrides)){
+			throw new MapFormatException("Checkpoint is truncated");
+		}
+		if(!isCell(start, size) || !isCell(goal, size) || !isCell(robot, size)){
+			throw new MapFormatException("Start, goal or robot cell is outside of the map");
+		}
+
+		MappedGridStore store = new MappedGridStore(rows, columns,
+				slice(buffer, HEADER_SIZE, size),
+				slice(buffer, tagsOffset, size),
+				slice(buffer, hOffset, 4 * size).asIntBuffer(),
+				slice(buffer, kOffset, 4 * size).asIntBuffer(),
+				slice(buffer, backPointerOffset, 4 * size).asIntBuffer());
+
+		DstarMap map = new DstarMap(store);
+		map.setEndpoints(start, goal);
+		map.setRobotLocation(robot);
+		DstarPathFinder planner = new DstarPathFinder(map, openListType, searchMode);
+
+		CostTable costs = planner.getCosts();
+		for(int i = 0; i < overrides; i++){
+			int at = (int) (overrideOffset + (long) OVERRIDE_SIZE * i);
+			int from = buffer.getInt(at);
+			int to = buffer.getInt(at + 4);
+			if(!isCell(from, size) || !isCell(to, size)){
+				throw new MapFormatException("Overridden cost of a cell outside of the map");
+			}
+			costs.setValue(from, to, buffer.getDouble(at + 8));
+		}
+
+		int[] open = new int[openCount];
+		int[] openK = new int[openCount];
+		for(int i = 0; i < openCount; i++){
+			int at = (int) (openOffset + (long) OPEN_SIZE * i);
+			open[i] = buffer.getInt(at);
+			openK[i] = buffer.getInt(at + 4);
+			if(!isCell(open[i], size)){
+				throw new MapFormatException("Open state " + open[i] + " is outside of the map");
+			}
+		}
+		planner.restore(bias, expansions, pending, open, openK);
+
+		return planner;
+	}
+
+	/**
+	 * Length of a checkpoint file, header included
+	 */
+	private static long fileLength(int size, int openCount, int overrides){
+		return HEADER_SIZE + (long) size + tagsSize(size) + 12L * size
+				+ (long) OPEN_SIZE * openCount + (long) OVERRIDE_SIZE * overrides;
+	}
+
+	/**
+	 * Bytes taken by the tags, padded so the int arrays after them start
+	 * on a multiple of 4
+	 */
+	private static int tagsSize(int size){
+		return (size + 3) & ~3;
+	}
+
+	private static boolean isCell(int id, int size){
+		return id >= 0 && id < size;
+	}
+
+	/**
+	 * Returns a little endian view of part of the mapped file
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, long offset, int length){
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) offset);
+		view.limit((int) offset + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the block out if it has no room for the next value
+	 */
+	private static void room(FileChannel channel, ByteBuffer block, int bytes) throws IOException {
+		if(block.remaining() < bytes){
+			writeBlock(channel, block);
+		}
+	}
+
+	private static void writeBlock(FileChannel channel, ByteBuffer block) throws IOException {
+		block.flip();
+		while(block.hasRemaining()){
+			channel.write(block);
+		}
+		block.clear();
+	}
+}
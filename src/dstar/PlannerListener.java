@@ -0,0 +1,46 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Receives planner events.  Listeners are optional, a planner without a
+ * listener does no work for them at all.
+ */
+package dstar;
+
+public interface PlannerListener {
+
+	/**
+	 * Called when the goal has been put on the open list, before any expansion
+	 */
+	public void planStarted(DstarPlanner planner);
+
+	/**
+	 * Called after a state has been expanded
+	 *
+	 * @param cell cell id of the expanded state
+	 */
+	public void stateExpanded(DstarPlanner planner, int cell);
+
+	/**
+	 * Called when the initial plan is done
+	 */
+	public void initialPlanComputed(DstarPlanner planner, PlanResult result);
+
+	/**
+	 * Called when an obstacle has been reported, before the replan
+	 *
+	 * @param cell cell id of the obstacle
+	 */
+	public void obstacleReported(DstarPlanner planner, int cell);
+
+	/**
+	 * Called when a replan is done
+	 */
+	public void replanned(DstarPlanner planner, PlanResult result);
+
+	/**
+	 * Called after the robot has moved
+	 *
+	 * @param cell cell id the robot moved to
+	 */
+	public void robotMoved(DstarPlanner planner, int cell);
+}
@@ -0,0 +1,25 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Receives the statistics of every initial plan and replan of a planner.
+ * The planner counts with plain fields while it works and calls the
+ * metrics once at the end of each plan, so leaving metrics on costs a
+ * few increments per expansion and one call per plan.
+ *
+ * PlannerStats is the built-in implementation, it keeps totals and
+ * latency histograms and can be registered as a JMX MBean.
+ */
+package dstar;
+
+public interface PlannerMetrics {
+
+	/**
+	 * Called at the end of every initial plan and replan.  The statistics
+	 * object is reused by the planner, copy what you need before returning
+	 *
+	 * @param planner planner that finished planning
+	 * @param initialPlan true for the initial plan, false for a replan
+	 * @param statistics counts since the end of the previous plan
+	 */
+	public void planFinished(DstarPlanner planner, boolean initialPlan, PlanStatistics statistics);
+}
@@ -0,0 +1,420 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Keeps converged D* planners for a set of goals on the same map, so a
+ * robot that switches between goals (docks, pick stations) does not have
+ * to expand the map from scratch every time it switches.
+ *
+ * Every planner gets its own search store (GridStore.newSearchStore())
+ * over the cell states of the common map.  Cost changes go into a log
+ * shared by all planners: the active planner applies them straight away,
+ * a cached planner catches up on the ones it missed when its goal is
+ * selected again, and a new planner applies every change so far before
+ * its initial plan.  Switching back to a cached goal then only repairs the
+ * path from the robot's current cell.
+ *
+ * Changes every cached planner has applied are folded out of the log into
+ * a cost table that only keeps the last cost of each edge, so the log does
+ * not grow with the time the pool runs.  Planners whose goal is not
+ * selected for a long time catch up once the log gets long.
+ *
+ * Planners are evicted least recently used first, once there are more
+ * than the capacity or their estimated search state is over the memory
+ * budget.  The active planner is never evicted.
+ */
+package dstar;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class PlannerPool {
+
+	// once the log is this long cached planners that are behind catch up
+	// without being selected, so it can be folded
+	private static final int CATCH_UP_LENGTH = 4096;
+
+	private DstarMap map;
+	private GridStore grid;
+	private OpenListType openListType;
+	private SearchMode searchMode;
+
+	private int capacity;
+	private long memoryBudget = 0;
+
+	// planners by goal cell, in least recently used order
+	private LinkedHashMap<Integer, Entry> planners = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+	private Entry active;
+
+	// cost changes not every cached planner has applied yet, in order.
+	// Obstacles have NO_CELL as the second cell
+	private int[] changeFrom = new int[16];
+	private int[] changeTo = new int[16];
+	private double[] changeCosts = new double[16];
+	private int changeCount = 0;
+
+	// costs of the changes folded out of the log, new planners start out
+	// with these
+	private CostTable foldedCosts;
+	private int[] neighbors = new int[8];
+
+	// reused to hand logged changes to a planner
+	private CostUpdateBatch scratch;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * A cached planner and how far it is through the change log
+	 */
+	private static class Entry {
+		DstarPathFinder planner;
+		GridStore store;
+		int applied = 0;
+	}
+
+	/**
+	 * Builds a pool of plain D* planners using indexed heaps
+	 *
+	 * @param map map shared by all planners, its robot cell is the robot
+	 * @param capacity largest number of cached planners
+	 */
+	public PlannerPool(DstarMap map, int capacity){
+		this(map, capacity, OpenListType.INDEXED_HEAP, SearchMode.BASIC);
+	}
+
+	/**
+	 * Builds a pool of planners
+	 *
+	 * @param map map shared by all planners, its robot cell is the robot
+	 * @param capacity largest number of cached planners
+	 * @param openListType open list implementation of the planners
+	 * @param searchMode search mode of the planners
+	 */
+	public PlannerPool(DstarMap map, int capacity, OpenListType openListType, SearchMode searchMode){
+		if(capacity < 1){
+			throw new IllegalArgumentException("Capacity has to be at least 1: " + capacity);
+		}
+		this.map = map;
+		this.grid = map.getGrid();
+		this.capacity = capacity;
+		this.openListType = openListType;
+		this.searchMode = searchMode;
+		this.scratch = new CostUpdateBatch(map);
+		this.foldedCosts = new CostTable(grid);
+	}
+
+	/**
+	 * Sets a limit on the estimated search state of all cached planners,
+	 * see GridStore.estimateSearchBytes()
+	 *
+	 * @param bytes memory budget, 0 for no limit
+	 */
+	public void setMemoryBudget(long bytes){
+		this.memoryBudget = bytes;
+		evict();
+	}
+
+	/**
+	 * Makes the planner for a goal the active one.  A cached planner is
+	 * brought up to date with the cost changes it missed and its path is
+	 * repaired from the robot's cell, otherwise a new planner computes its
+	 * initial plan
+	 *
+	 * @param row row of the goal
+	 * @param column column of the goal
+	 * @return the active planner, with a path from the robot's cell
+	 */
+	public DstarPathFinder selectGoal(int row, int column){
+		int goal = grid.cellId(row, column);
+		int robot = map.getRobotId();
+		Entry entry = planners.get(goal);
+
+		if(entry == null){
+			misses++;
+			entry = new Entry();
+			entry.store = grid.newSearchStore();
+
+			DstarMap view = new DstarMap(entry.store);
+			view.setEndpoints(robot, goal);
+			entry.planner = new DstarPathFinder(view, openListType, searchMode);
+
+			// obstacles found so far only set costs, all states are still new
+			copyFoldedCosts(entry.planner.getCosts());
+			catchUp(entry);
+			entry.planner.computeInitialPlan();
+			planners.put(goal, entry);
+		}else{
+			hits++;
+			catchUp(entry);
+			if(entry.planner.getMap().getRobotId() != robot){
+				entry.planner.moveRobot(grid.rowOf(robot), grid.columnOf(robot));
+				entry.planner.requestReplan();
+			}
+			entry.planner.replan();
+		}
+
+		active = entry;
+		evict();
+		foldLog();
+		return entry.planner;
+	}
+
+	/**
+	 * Returns the planner of the last selected goal
+	 *
+	 * @return active planner, null if no goal was selected
+	 */
+	public DstarPathFinder getActivePlanner(){
+		return active == null ? null : active.planner;
+	}
+
+	/**
+	 * Reports an obstacle to every planner, the active planner's path is
+	 * repaired by the next call to replan()
+	 *
+	 * @param row row of the obstacle
+	 * @param column column of the obstacle
+	 */
+	public void reportObstacle(int row, int column){
+		logChange(grid.cellId(row, column), GridStore.NO_CELL, DstarPathFinder.INFINITY_COST);
+		if(active != null){
+			catchUp(active);
+		}
+		foldLog();
+	}
+
+	/**
+	 * Reports a batch of cost changes to every planner and repairs the
+	 * active planner's path
+	 *
+	 * @param batch cost changes
+	 * @return result of the active planner's replan
+	 */
+	public PlanResult replan(CostUpdateBatch batch){
+		// a batch applies its obstacles before its edges
+		for(int i = 0; i < batch.getObstacleCount(); i++){
+			logChange(batch.getObstacle(i), GridStore.NO_CELL, DstarPathFinder.INFINITY_COST);
+		}
+		for(int i = 0; i < batch.getEdgeCount(); i++){
+			logChange(batch.getEdgeFrom(i), batch.getEdgeTo(i), batch.getEdgeCost(i));
+		}
+		return replan();
+	}
+
+	/**
+	 * Repairs the active planner's path
+	 *
+	 * @return result of the replan
+	 */
+	public PlanResult replan(){
+		Entry entry = requireActive();
+		catchUp(entry);
+		PlanResult result = entry.planner.replan();
+		evict();
+		foldLog();
+		return result;
+	}
+
+	/**
+	 * Returns the next waypoint of the active planner
+	 *
+	 * @return the next cell on the path to the active goal
+	 */
+	public Waypoint nextWaypoint(){
+		return requireActive().planner.nextWaypoint();
+	}
+
+	/**
+	 * Moves the robot, the other planners pick up the new cell when their
+	 * goal is selected
+	 *
+	 * @param row row the robot moved to
+	 * @param column column the robot moved to
+	 */
+	public void moveRobot(int row, int column){
+		map.setRobotLocation(grid.cellId(row, column));
+		if(active != null){
+			active.planner.moveRobot(row, column);
+		}
+	}
+
+	/**
+	 * Returns true if a planner for the goal is cached
+	 *
+	 * @param row row of the goal
+	 * @param column column of the goal
+	 * @return true if the goal has a cached planner
+	 */
+	public boolean contains(int row, int column){
+		return planners.containsKey(grid.cellId(row, column));
+	}
+
+	public int getPlannerCount(){
+		return planners.size();
+	}
+
+	/**
+	 * Returns the estimated search state of all cached planners
+	 *
+	 * @return estimated bytes
+	 */
+	public long getEstimatedBytes(){
+		long bytes = 0;
+		for(Entry entry : planners.values()){
+			bytes += entry.store.estimateSearchBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of selected goals that had a cached planner
+	 *
+	 * @return cache hits
+	 */
+	public long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Returns the number of selected goals that needed a new planner
+	 *
+	 * @return cache misses
+	 */
+	public long getMisses(){
+		return misses;
+	}
+
+	public long getEvictions(){
+		return evictions;
+	}
+
+	public DstarMap getMap(){
+		return map;
+	}
+
+	private Entry requireActive(){
+		if(active == null){
+			throw new IllegalStateException("No goal has been selected");
+		}
+		return active;
+	}
+
+	private void logChange(int from, int to, double cost){
+		if(changeCount == changeFrom.length){
+			changeFrom = Arrays.copyOf(changeFrom, changeCount * 2);
+			changeTo = Arrays.copyOf(changeTo, changeCount * 2);
+			changeCosts = Arrays.copyOf(changeCosts, changeCount * 2);
+		}
+		changeFrom[changeCount] = from;
+		changeTo[changeCount] = to;
+		changeCosts[changeCount] = cost;
+		changeCount++;
+	}
+
+	/**
+	 * Hands a planner the logged changes it has not seen yet, in order.
+	 * A batch applies obstacles before edges, so an obstacle logged after
+	 * an edge starts a new batch
+	 */
+	private void catchUp(Entry entry){
+		scratch.clear();
+		for(int i = entry.applied; i < changeCount; i++){
+			int from = changeFrom[i];
+			int to = changeTo[i];
+			if(to == GridStore.NO_CELL){
+				if(scratch.getEdgeCount() > 0){
+					entry.planner.applyBatch(scratch);
+					scratch.clear();
+				}
+				scratch.addObstacle(grid.rowOf(from), grid.columnOf(from));
+			}else{
+				scratch.addEdgeCost(grid.rowOf(from), grid.columnOf(from), grid.rowOf(to), grid.columnOf(to), changeCosts[i]);
+			}
+		}
+		if(!scratch.isEmpty()){
+			entry.planner.applyBatch(scratch);
+		}
+		entry.applied = changeCount;
+	}
+
+	/**
+	 * Folds the changes every cached planner has applied into the folded
+	 * costs and moves the rest of the log to its start.  Only done once at
+	 * least half of the log can go, so every change is moved a bounded
+	 * number of times
+	 */
+	private void foldLog(){
+		if(changeCount >= CATCH_UP_LENGTH){
+			// applying changes only opens states, the planner repairs its
+			// path when its goal is selected
+			for(Entry entry : planners.values()){
+				catchUp(entry);
+			}
+		}
+
+		int folded = changeCount;
+		for(Entry entry : planners.values()){
+			folded = Math.min(folded, entry.applied);
+		}
+		if(folded == 0 || folded * 2 < changeCount){
+			return;
+		}
+
+		for(int i = 0; i < folded; i++){
+			int from = changeFrom[i];
+			if(changeTo[i] == GridStore.NO_CELL){
+				// the same costs modifyCost sets around an obstacle
+				int count = map.getNeighbors(from, neighbors);
+				for(int j = 0; j < count; j++){
+					foldedCosts.setValue(from, neighbors[j], DstarPathFinder.INFINITY_COST);
+				}
+			}else{
+				foldedCosts.setValue(from, changeTo[i], changeCosts[i]);
+			}
+		}
+
+		changeCount -= folded;
+		System.arraycopy(changeFrom, folded, changeFrom, 0, changeCount);
+		System.arraycopy(changeTo, folded, changeTo, 0, changeCount);
+		System.arraycopy(changeCosts, folded, changeCosts, 0, changeCount);
+		for(Entry entry : planners.values()){
+			entry.applied -= folded;
+		}
+	}
+
+	/**
+	 * Sets the folded costs on a new planner's cost table.  All of its
+	 * states are new, so nothing has to be opened
+	 */
+	private void copyFoldedCosts(CostTable costs){
+		int count = foldedCosts.size();
+		int[] from = new int[count];
+		int[] to = new int[count];
+		double[] values = new double[count];
+		foldedCosts.copyOverrides(from, to, values);
+		for(int i = 0; i < count; i++){
+			costs.setValue(from[i], to[i], values[i]);
+		}
+	}
+
+	/**
+	 * Drops least recently used planners until the pool is within its
+	 * capacity and memory budget
+	 */
+	private void evict(){
+		long bytes = memoryBudget > 0 ? getEstimatedBytes() : 0;
+		Iterator<Entry> iterator = planners.values().iterator();
+		while(iterator.hasNext() && (planners.size() > capacity
+				|| (memoryBudget > 0 && bytes > memoryBudget))){
+			Entry entry = iterator.next();
+			if(entry == active){
+				continue;
+			}
+			iterator.remove();
+			bytes -= entry.store.estimateSearchBytes();
+			evictions++;
+		}
+	}
+}
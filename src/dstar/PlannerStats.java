@@ -0,0 +1,185 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * PlannerMetrics that keep totals and latency histograms of every plan, for
+ * any number of planners, and show them as a JMX MBean:
+ *
+ *   PlannerStats stats = new PlannerStats();
+ *   stats.register("robot1");
+ *   planner.setMetrics(stats);
+ *
+ * The MBean is then found in jconsole or VisualVM under
+ * dstar:type=PlannerStats,name=robot1.  Planners on different threads can
+ * report to the same stats.
+ */
+package dstar;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class PlannerStats implements PlannerMetrics, PlannerStatsMBean {
+
+	private AtomicLong initialPlans = new AtomicLong();
+	private AtomicLong replans = new AtomicLong();
+	private AtomicLong unreachablePlans = new AtomicLong();
+	private AtomicLong expansions = new AtomicLong();
+	private AtomicLong raiseExpansions = new AtomicLong();
+	private AtomicLong lowerExpansions = new AtomicLong();
+	private AtomicLong inserts = new AtomicLong();
+	private AtomicLong reopenedStates = new AtomicLong();
+	private AtomicLong openListPeak = new AtomicLong();
+
+	private LatencyHistogram initialPlanLatency = new LatencyHistogram();
+	private LatencyHistogram replanLatency = new LatencyHistogram();
+
+	// name the MBean was registered under, null if it isn't
+	private ObjectName objectName;
+
+	public void planFinished(DstarPlanner planner, boolean initialPlan, PlanStatistics statistics) {
+		if(initialPlan){
+			initialPlans.incrementAndGet();
+			initialPlanLatency.record(statistics.getElapsedNanos() / 1000);
+		}else{
+			replans.incrementAndGet();
+			replanLatency.record(statistics.getElapsedNanos() / 1000);
+		}
+		if(!statistics.isReachable()){
+			unreachablePlans.incrementAndGet();
+		}
+
+		expansions.addAndGet(statistics.getExpansions());
+		raiseExpansions.addAndGet(statistics.getRaiseExpansions());
+		lowerExpansions.addAndGet(statistics.getLowerExpansions());
+		inserts.addAndGet(statistics.getInserts());
+		reopenedStates.addAndGet(statistics.getReopenedStates());
+
+		long peak = openListPeak.get();
+		while(statistics.getOpenListPeak() > peak && !openListPeak.compareAndSet(peak, statistics.getOpenListPeak())){
+			peak = openListPeak.get();
+		}
+	}
+
+	/**
+	 * Registers the stats with the platform MBean server as
+	 * dstar:type=PlannerStats,name=<name>
+	 *
+	 * @param name name telling these stats apart from others
+	 * @throws JMException if the name is taken or not a valid ObjectName
+	 */
+	public void register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("dstar:type=PlannerStats,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	/**
+	 * Removes the stats from the platform MBean server, if registered
+	 *
+	 * @throws JMException if the MBean server refuses
+	 */
+	public void unregister() throws JMException {
+		if(objectName != null){
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	public LatencyHistogram getInitialPlanLatency() {
+		return initialPlanLatency;
+	}
+
+	public LatencyHistogram getReplanLatency() {
+		return replanLatency;
+	}
+
+	public long getInitialPlans() {
+		return initialPlans.get();
+	}
+
+	public long getReplans() {
+		return replans.get();
+	}
+
+	public long getUnreachablePlans() {
+		return unreachablePlans.get();
+	}
+
+	public long getExpansions() {
+		return expansions.get();
+	}
+
+	public long getRaiseExpansions() {
+		return raiseExpansions.get();
+	}
+
+	public long getLowerExpansions() {
+		return lowerExpansions.get();
+	}
+
+	public long getInserts() {
+		return inserts.get();
+	}
+
+	public long getReopenedStates() {
+		return reopenedStates.get();
+	}
+
+	public long getOpenListPeak() {
+		return openListPeak.get();
+	}
+
+	public long getInitialPlanP50Micros() {
+		return initialPlanLatency.percentile(0.5);
+	}
+
+	public long getInitialPlanP99Micros() {
+		return initialPlanLatency.percentile(0.99);
+	}
+
+	public long getInitialPlanMaxMicros() {
+		return initialPlanLatency.getMax();
+	}
+
+	public long getReplanP50Micros() {
+		return replanLatency.percentile(0.5);
+	}
+
+	public long getReplanP90Micros() {
+		return replanLatency.percentile(0.9);
+	}
+
+	public long getReplanP99Micros() {
+		return replanLatency.percentile(0.99);
+	}
+
+	public long getReplanMaxMicros() {
+		return replanLatency.getMax();
+	}
+
+	public void reset() {
+		initialPlans.set(0);
+		replans.set(0);
+		unreachablePlans.set(0);
+		expansions.set(0);
+		raiseExpansions.set(0);
+		lowerExpansions.set(0);
+		inserts.set(0);
+		reopenedStates.set(0);
+		openListPeak.set(0);
+		initialPlanLatency.reset();
+		replanLatency.reset();
+	}
+
+	public String toString() {
+		return "plans=" + getInitialPlans() + "+" + getReplans() + " expansions=" + getExpansions()
+				+ " raise=" + getRaiseExpansions() + " lower=" + getLowerExpansions()
+				+ " inserts=" + getInserts() + " reopened=" + getReopenedStates()
+				+ " openListPeak=" + getOpenListPeak()
+				+ " replan p50/p99=" + getReplanP50Micros() + "/" + getReplanP99Micros() + "us";
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * JMX view of PlannerStats.  Counts are totals over every planner reporting
+ * to the stats since they were built or last reset, latencies are in
+ * microseconds.
+ */
+package dstar;
+
+public interface PlannerStatsMBean {
+
+	public long getInitialPlans();
+
+	public long getReplans();
+
+	/**
+	 * Returns the number of plans that ended without a path for the robot
+	 *
+	 * @return unreachable plans
+	 */
+	public long getUnreachablePlans();
+
+	public long getExpansions();
+
+	public long getRaiseExpansions();
+
+	public long getLowerExpansions();
+
+	public long getInserts();
+
+	public long getReopenedStates();
+
+	/**
+	 * Returns the largest open list of any plan
+	 *
+	 * @return open list peak size
+	 */
+	public long getOpenListPeak();
+
+	public long getInitialPlanP50Micros();
+
+	public long getInitialPlanP99Micros();
+
+	public long getInitialPlanMaxMicros();
+
+	public long getReplanP50Micros();
+
+	public long getReplanP90Micros();
+
+	public long getReplanP99Micros();
+
+	public long getReplanMaxMicros();
+
+	/**
+	 * Clears all counts and latencies
+	 */
+	public void reset();
+}
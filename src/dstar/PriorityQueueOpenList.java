@@ -0,0 +1,119 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Open list backed by a java.util.PriorityQueue, which is how the path
+ * finder originally kept its open list.  Changing the key of a cell has to
+ * remove it with a linear scan and add it again, so this list is mostly
+ * kept around to compare against IndexedBinaryHeap.
+ */
+package dstar;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+public class PriorityQueueOpenList implements OpenList {
+
+	private PriorityQueue<Integer> queue;
+
+	// keys of every cell, only valid while the cell is on the queue
+	private double[] keys;
+	private double[] secondKeys;
+	private boolean[] queued;
+
+	/**
+	 * @param cells number of cells in the map
+	 */
+	public PriorityQueueOpenList(int cells){
+		keys = new double[cells];
+		secondKeys = new double[cells];
+		queued = new boolean[cells];
+
+		final double[] cellKeys = keys;
+		final double[] cellSecondKeys = secondKeys;
+		queue = new PriorityQueue<Integer>(11, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				int compare = Double.compare(cellKeys[a], cellKeys[b]);
+				if(compare == 0){
+					compare = Double.compare(cellSecondKeys[a], cellSecondKeys[b]);
+				}
+				return compare;
+			}
+		});
+	}
+
+	public void add(int id, double key) {
+		add(id, key, 0);
+	}
+
+	public void add(int id, double key, double secondKey) {
+		if(queued[id]){
+			queue.remove(id);
+		}
+		keys[id] = key;
+		secondKeys[id] = secondKey;
+		queued[id] = true;
+		queue.add(id);
+	}
+
+	public boolean remove(int id) {
+		if(!queued[id]){
+			return false;
+		}
+		queued[id] = false;
+		return queue.remove(id);
+	}
+
+	public int poll() {
+		int id = queue.remove();
+		queued[id] = false;
+		return id;
+	}
+
+	public int peek() {
+		Integer id = queue.peek();
+		if(id == null){
+			return GridStore.NO_CELL;
+		}
+		return id;
+	}
+
+	public double peekKey() {
+		return keys[queue.element()];
+	}
+
+	public double peekSecondKey() {
+		return secondKeys[queue.element()];
+	}
+
+	public double getKey(int id) {
+		return keys[id];
+	}
+
+	public boolean contains(int id) {
+		return queued[id];
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public void clear() {
+		for(int id: queue){
+			queued[id] = false;
+		}
+		queue.clear();
+	}
+
+	public int[] toArray() {
+		int[] list = new int[queue.size()];
+		int index = 0;
+		for(int id: queue){
+			list[index++] = id;
+		}
+		return list;
+	}
+}
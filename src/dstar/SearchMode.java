@@ -0,0 +1,17 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Ways DstarPathFinder can order its open list
+ */
+package dstar;
+
+public enum SearchMode {
+
+	// original D*, states are expanded in order of k, outward from the goal
+	// in every direction
+	BASIC,
+
+	// Focused D*, k is biased with the octile distance to the robot so the
+	// search is pulled towards the robot's position
+	FOCUSED
+}
@@ -0,0 +1,126 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Publishes copy-on-write snapshots of a D* plan so other threads can read
+ * paths and costs while the planner thread replans.
+ *
+ * The publisher is used from the planner thread only: set it as the
+ * planner's listener and it publishes after every plan, replan and robot
+ * move, or call publish() directly.  Reader threads call getSnapshot(),
+ * which never blocks and always returns a complete plan.  While a
+ * DstarPathFinder has a plan pending (a cost change not replanned yet, or
+ * a replan step() has only done part of), robot moves publish the new
+ * robot cell with the cells of the last complete plan, the written tiles
+ * wait for the replan.
+ *
+ * The grid store records which tiles of cell ids were written since the
+ * last snapshot and only those tiles are copied, a replan that touches a
+ * small part of the map publishes in time proportional to that part.
+ *
+ * Works with DstarPathFinder and FleetPlanner, which keep their h values
+ * and back pointers in the map's grid store.  D* Lite keeps no back
+ * pointer field to snapshot.
+ */
+package dstar;
+
+public class SnapshotPublisher extends PlannerAdapter {
+
+	private DstarMap map;
+	private GridStore grid;
+
+	// tiles of the last published snapshot, shared with it
+	private double[][] h;
+	private int[][] backPointer;
+
+	private long version = 0;
+	private volatile PlanSnapshot snapshot;
+
+	/**
+	 * Starts taking snapshots of the plan kept in the map's grid store and
+	 * publishes the current state as the first snapshot
+	 *
+	 * @param map map the planner works on
+	 */
+	public SnapshotPublisher(DstarMap map){
+		this.map = map;
+		this.grid = map.getGrid();
+
+		h = new double[grid.tileCount()][];
+		backPointer = new int[grid.tileCount()][];
+
+		grid.trackDirtyTiles();
+		publish();
+	}
+
+	/**
+	 * Returns the last published snapshot, safe to call from any thread
+	 *
+	 * @return the latest snapshot
+	 */
+	public PlanSnapshot getSnapshot(){
+		return snapshot;
+	}
+
+	/**
+	 * Publishes a new snapshot, copying the tiles written since the last
+	 * one.  Has to be called from the planner thread
+	 *
+	 * @return the new snapshot
+	 */
+	public PlanSnapshot publish(){
+		boolean changed = snapshot == null || snapshot.getRobotId() != map.getRobotId();
+
+		// the tile arrays are cloned before a changed tile replaces a shared
+		// one, the previous snapshot keeps its own
+		int tile = grid.takeDirtyTile(0);
+		if(tile != -1){
+			h = h.clone();
+			backPointer = backPointer.clone();
+			changed = true;
+		}
+		while(tile != -1){
+			double[] tileH = new double[GridStore.TILE_SIZE];
+			int[] tileBackPointers = new int[GridStore.TILE_SIZE];
+			grid.copyTile(tile, tileH, tileBackPointers);
+			h[tile] = tileH;
+			backPointer[tile] = tileBackPointers;
+
+			tile = grid.takeDirtyTile(tile + 1);
+		}
+
+		if(changed){
+			version++;
+			snapshot = new PlanSnapshot(version, grid.getRows(), grid.getColumns(),
+					map.getRobotId(), map.getGoalId(), h, backPointer);
+		}
+		return snapshot;
+	}
+
+	public void initialPlanComputed(DstarPlanner planner, PlanResult result) {
+		publish();
+	}
+
+	public void replanned(DstarPlanner planner, PlanResult result) {
+		publish();
+	}
+
+	public void robotMoved(DstarPlanner planner, int cell) {
+		if(planner instanceof DstarPathFinder && ((DstarPathFinder) planner).isPlanPending()){
+			publishRobot();
+		}else{
+			publish();
+		}
+	}
+
+	/**
+	 * Publishes a snapshot of the last plan with the robot's new cell,
+	 * tiles written since stay dirty for the next publish()
+	 */
+	private void publishRobot(){
+		if(snapshot.getRobotId() != map.getRobotId()){
+			version++;
+			snapshot = new PlanSnapshot(version, grid.getRows(), grid.getColumns(),
+					map.getRobotId(), map.getGoalId(), h, backPointer);
+		}
+	}
+}
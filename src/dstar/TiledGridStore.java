@@ -0,0 +1,258 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * GridStore that keeps its cells in 64 x 64 chunks which are only
+ * allocated when they are needed.  Search state (h, k, tag and back
+ * pointer) gets a chunk the first time the planner writes to a cell in it,
+ * cell states get a chunk the first time a cell in it is set to anything
+ * but open.  Reads from a missing chunk return the same defaults a new
+ * GridStore starts with, so the path finders can't tell the difference.
+ *
+ * Cell ids are the same row * columns + column ids as GridStore uses, so
+ * neighbors and paths cross chunk borders without any special handling.
+ * This lets a planner work on very large grids where most of the map is
+ * never reached by the search.
+ */
+package dstar;
+
+import java.util.Arrays;
+
+public class TiledGridStore extends GridStore {
+
+	// chunks are CHUNK_SIZE x CHUNK_SIZE cells
+	public static final int CHUNK_SHIFT = 6;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	private int columns;
+	private int chunkColumns;
+
+	// search state chunks, null until a cell in the chunk is written
+	private SearchChunk[] search;
+	private int searchChunks = 0;
+
+	// cell state chunks, null while every cell in the chunk is open.  The
+	// array is shared by every store built on the same terrain
+	private byte[][] state;
+
+	/**
+	 * Search state of one chunk, in the same layout GridStore uses
+	 */
+	private static class SearchChunk {
+		double[] h = new double[CHUNK_CELLS];
+		double[] k = new double[CHUNK_CELLS];
+		byte[] tag = new byte[CHUNK_CELLS];
+		int[] backPointer = new int[CHUNK_CELLS];
+
+		SearchChunk(){
+			Arrays.fill(backPointer, NO_CELL);
+		}
+	}
+
+	/**
+	 * Sets up a tiled store for a rows x columns grid, no chunks are
+	 * allocated yet
+	 *
+	 * @param rows number of rows
+	 * @param columns number of columns
+	 */
+	public TiledGridStore(int rows, int columns){
+		super(rows, columns, false);
+		this.columns = columns;
+		this.chunkColumns = (columns + CHUNK_MASK) >> CHUNK_SHIFT;
+
+		int chunks = ((rows + CHUNK_MASK) >> CHUNK_SHIFT) * chunkColumns;
+		search = new SearchChunk[chunks];
+		state = new byte[chunks][];
+	}
+
+	/**
+	 * Sets up a tiled store that shares the cell states of another tiled
+	 * store, but has search state of its own
+	 *
+	 * @param terrain store whose cell states are shared
+	 */
+	public TiledGridStore(TiledGridStore terrain){
+		super(terrain.getRows(), terrain.getColumns(), false);
+		this.columns = terrain.columns;
+		this.chunkColumns = terrain.chunkColumns;
+
+		search = new SearchChunk[terrain.search.length];
+		state = terrain.state;
+	}
+
+	public GridStore newSearchStore(){
+		return new TiledGridStore(this);
+	}
+
+	/**
+	 * Returns the number of chunks holding search state
+	 *
+	 * @return allocated search chunks
+	 */
+	public int getSearchChunkCount(){
+		return searchChunks;
+	}
+
+	public long estimateSearchBytes() {
+		return (long) searchChunks * CHUNK_CELLS * SEARCH_BYTES_PER_CELL;
+	}
+
+	/**
+	 * Returns the number of chunks holding cells that are not open
+	 *
+	 * @return allocated terrain chunks
+	 */
+	public int getTerrainChunkCount(){
+		int count = 0;
+		for(int i = 0; i < state.length; i++){
+			if(state[i] != null){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total number of chunks the grid is split into
+	 *
+	 * @return number of chunks
+	 */
+	public int getChunkCount(){
+		return search.length;
+	}
+
+	public double getH(int id) {
+		SearchChunk chunk = search[chunkOf(id)];
+		return chunk == null ? 0 : chunk.h[offsetOf(id)];
+	}
+
+	public void setH(int id, double value) {
+		int index = chunkOf(id);
+		if(search[index] == null && value == 0){
+			return;
+		}
+		searchChunk(index).h[offsetOf(id)] = value;
+		if(isTrackingDirtyTiles()){
+			markDirty(id);
+		}
+	}
+
+	public double getK(int id) {
+		SearchChunk chunk = search[chunkOf(id)];
+		return chunk == null ? 0 : chunk.k[offsetOf(id)];
+	}
+
+	public void setK(int id, double value) {
+		int index = chunkOf(id);
+		if(search[index] == null && value == 0){
+			return;
+		}
+		searchChunk(index).k[offsetOf(id)] = value;
+	}
+
+	public byte getTag(int id) {
+		SearchChunk chunk = search[chunkOf(id)];
+		return chunk == null ? TAG_NEW : chunk.tag[offsetOf(id)];
+	}
+
+	public void setTag(int id, byte value) {
+		int index = chunkOf(id);
+		if(search[index] == null && value == TAG_NEW){
+			return;
+		}
+		searchChunk(index).tag[offsetOf(id)] = value;
+	}
+
+	public int getBackPointer(int id) {
+		SearchChunk chunk = search[chunkOf(id)];
+		return chunk == null ? NO_CELL : chunk.backPointer[offsetOf(id)];
+	}
+
+	public void setBackPointer(int id, int pointer) {
+		int index = chunkOf(id);
+		if(search[index] == null && pointer == NO_CELL){
+			return;
+		}
+		searchChunk(index).backPointer[offsetOf(id)] = pointer;
+		if(isTrackingDirtyTiles()){
+			markDirty(id);
+		}
+	}
+
+	/**
+	 * Only tiles overlapping a search chunk can hold anything but defaults
+	 */
+	void markWrittenTiles(){
+		for(int index = 0; index < search.length; index++){
+			if(search[index] == null){
+				continue;
+			}
+			int firstRow = (index / chunkColumns) << CHUNK_SHIFT;
+			int firstColumn = (index % chunkColumns) << CHUNK_SHIFT;
+			int lastRow = Math.min(firstRow + CHUNK_SIZE, getRows()) - 1;
+			int lastColumn = Math.min(firstColumn + CHUNK_SIZE, columns) - 1;
+			for(int row = firstRow; row <= lastRow; row++){
+				markDirty(cellId(row, firstColumn));
+				markDirty(cellId(row, lastColumn));
+			}
+		}
+	}
+
+	void copyTile(int tile, double[] tileH, int[] tileBackPointers){
+		int first = tile << TILE_SHIFT;
+		int count = Math.min(TILE_SIZE, size() - first);
+		for(int i = 0; i < count; i++){
+			tileH[i] = getH(first + i);
+			tileBackPointers[i] = getBackPointer(first + i);
+		}
+	}
+
+	public byte getState(int id) {
+		byte[] chunk = state[chunkOf(id)];
+		return chunk == null ? STATE_OPEN : chunk[offsetOf(id)];
+	}
+
+	public void setState(int id, byte value) {
+		int index = chunkOf(id);
+		byte[] chunk = state[index];
+		if(chunk == null){
+			if(value == STATE_OPEN){
+				return;
+			}
+			chunk = new byte[CHUNK_CELLS];
+			Arrays.fill(chunk, STATE_OPEN);
+			state[index] = chunk;
+		}
+		chunk[offsetOf(id)] = value;
+	}
+
+	private SearchChunk searchChunk(int index){
+		SearchChunk chunk = search[index];
+		if(chunk == null){
+			chunk = new SearchChunk();
+			search[index] = chunk;
+			searchChunks++;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Index of the chunk holding a cell
+	 */
+	private int chunkOf(int id){
+		int row = id / columns;
+		int column = id - row * columns;
+		return (row >> CHUNK_SHIFT) * chunkColumns + (column >> CHUNK_SHIFT);
+	}
+
+	/**
+	 * Index of a cell inside its chunk
+	 */
+	private int offsetOf(int id){
+		int row = id / columns;
+		int column = id - row * columns;
+		return ((row & CHUNK_MASK) << CHUNK_SHIFT) | (column & CHUNK_MASK);
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Records every input a planner gets to a trace file, so a run can be
+ * replayed headlessly with TraceReplay and compared between planners,
+ * open lists and versions.
+ *
+ * The recorder is a DstarPlanner wrapped around another one: calls are
+ * written to the trace and handed on.  Use it wherever the planner would
+ * be used:
+ *
+ *   TraceRecorder planner = new TraceRecorder(new DstarPathFinder(map), "run.trace");
+ *   ... control loop ...
+ *   planner.close();
+ *
+ * The file starts with the map as it was when recording started:
+ *
+ *   int   magic "DSTT"
+ *   short version
+ *   int   rows
+ *   int   columns
+ *   int   start cell id
+ *   int   goal cell id
+ *   int   robot cell id
+ *   byte[] cells, 2 bits each as in BinaryMap
+ *
+ * followed by one event per call, a type byte and its arguments.  Cells
+ * are written as the zigzag varint of their distance in cell ids from the
+ * robot, which keeps obstacles and moves near the robot to a byte or two.
+ * Every plan is followed by its status, path cost and epsilon, so a replay
+ * can check it gets the same plans.
+ *
+ *   INITIAL_PLAN  result
+ *   OBSTACLE      cell
+ *   REPLAN        result
+ *   BATCH         obstacle count, cells, edge count, edges as two cells
+ *                 and a double cost, result
+ *   MOVE          cell
+ */
+package dstar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TraceRecorder implements DstarPlanner {
+
+	public static final int MAGIC = 0x44535454;	// "DSTT"
+	public static final short VERSION = 1;
+
+	// event types
+	static final byte INITIAL_PLAN = 1;
+	static final byte OBSTACLE = 2;
+	static final byte REPLAN = 3;
+	static final byte BATCH = 4;
+	static final byte MOVE = 5;
+
+	private DstarPlanner planner;
+	private DstarMap map;
+	private DataOutputStream out;
+
+	// robot cell the next event's cells are written relative to
+	private int robot;
+
+	/**
+	 * Starts a trace of a planner that has not planned yet
+	 *
+	 * @param planner planner to record
+	 * @param filename path of the trace
+	 * @throws IOException if the file cannot be written
+	 */
+	public TraceRecorder(DstarPlanner planner, String filename) throws IOException {
+		this.planner = planner;
+		this.map = planner.getMap();
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+
+		GridStore grid = map.getGrid();
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(grid.getRows());
+		out.writeInt(grid.getColumns());
+		out.writeInt(map.getStartId());
+		out.writeInt(map.getGoalId());
+		out.writeInt(map.getRobotId());
+		robot = map.getRobotId();
+
+		int size = grid.size();
+		for(int id = 0; id < size; id += 4){
+			int packed = 0;
+			int last = Math.min(id + 4, size);
+			for(int cell = id; cell < last; cell++){
+				packed |= BinaryMap.stateCode(grid.getState(cell)) << ((cell - id) * 2);
+			}
+			out.writeByte(packed);
+		}
+	}
+
+	public PlanResult computeInitialPlan() {
+		PlanResult result = planner.computeInitialPlan();
+		writeType(INITIAL_PLAN);
+		writeResult(result);
+		return result;
+	}
+
+	public void reportObstacle(int row, int column) {
+		writeType(OBSTACLE);
+		writeCell(map.getGrid().cellId(row, column));
+		planner.reportObstacle(row, column);
+	}
+
+	public PlanResult replan() {
+		PlanResult result = planner.replan();
+		writeType(REPLAN);
+		writeResult(result);
+		return result;
+	}
+
+	public PlanResult replan(CostUpdateBatch batch) {
+		writeType(BATCH);
+		try{
+			writeCount(batch.getObstacleCount());
+			for(int i = 0; i < batch.getObstacleCount(); i++){
+				writeCell(batch.getObstacle(i));
+			}
+			writeCount(batch.getEdgeCount());
+			for(int i = 0; i < batch.getEdgeCount(); i++){
+				writeCell(batch.getEdgeFrom(i));
+				writeCell(batch.getEdgeTo(i));
+				out.writeDouble(batch.getEdgeCost(i));
+			}
+		}catch(IOException e){
+			throw new IllegalStateException("Can't write the trace", e);
+		}
+
+		PlanResult result = planner.replan(batch);
+		writeResult(result);
+		return result;
+	}
+
+	public Waypoint nextWaypoint() {
+		return planner.nextWaypoint();
+	}
+
+	public void moveRobot(int row, int column) {
+		writeType(MOVE);
+		int cell = map.getGrid().cellId(row, column);
+		writeCell(cell);
+		robot = cell;
+		planner.moveRobot(row, column);
+	}
+
+	public long getExpansions() {
+		return planner.getExpansions();
+	}
+
+	public DstarMap getMap() {
+		return map;
+	}
+
+	public void setListener(PlannerListener listener) {
+		planner.setListener(listener);
+	}
+
+	public void setMetrics(PlannerMetrics metrics) {
+		planner.setMetrics(metrics);
+	}
+
+	/**
+	 * Returns the planner being recorded
+	 *
+	 * @return wrapped planner
+	 */
+	public DstarPlanner getPlanner(){
+		return planner;
+	}
+
+	/**
+	 * Writes out the rest of the trace and closes the file
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeType(byte type){
+		try{
+			out.writeByte(type);
+		}catch(IOException e){
+			throw new IllegalStateException("Can't write the trace", e);
+		}
+	}
+
+	private void writeResult(PlanResult result){
+		try{
+			out.writeByte(result.getStatus().ordinal());
+			out.writeDouble(result.getPathCost());
+			out.writeDouble(result.getEpsilon());
+		}catch(IOException e){
+			throw new IllegalStateException("Can't write the trace", e);
+		}
+	}
+
+	/**
+	 * Writes a cell as its zigzag encoded distance from the robot
+	 */
+	private void writeCell(int cell){
+		int delta = cell - robot;
+		try{
+			writeVarint((delta << 1) ^ (delta >> 31));
+		}catch(IOException e){
+			throw new IllegalStateException("Can't write the trace", e);
+		}
+	}
+
+	private void writeCount(int count) throws IOException {
+		writeVarint(count);
+	}
+
+	/**
+	 * Writes 7 bits per byte, lowest bits first, the top bit set on every
+	 * byte but the last
+	 */
+	private void writeVarint(int value) throws IOException {
+		while((value & ~0x7f) != 0){
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+}
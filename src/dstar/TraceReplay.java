@@ -0,0 +1,443 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Replays a trace written by TraceRecorder into a planner, without a
+ * console or renderer, and reports the expansions and time taken by every
+ * event.  Plans are checked against the ones that were recorded, so a
+ * directory of traces works as a regression suite for planner changes:
+ *
+ *   java dstar.TraceReplay run.trace focused
+ *
+ * The whole trace is read into memory when it is opened, replays only
+ * decode it, so a trace can be replayed into as many planners as needed.
+ */
+package dstar;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TraceReplay {
+
+	// bytes before the cells: magic, version and five ints
+	private static final int HEADER_SIZE = 4 + 2 + 5 * 4;
+
+	// bytes of a recorded plan result: status, cost and epsilon
+	private static final int RESULT_SIZE = 1 + 8 + 8;
+
+	private static final String[] EVENT_NAMES = {null, "initial", "obstacle", "replan", "batch", "move"};
+
+	private int rows;
+	private int columns;
+	private int start;
+	private int goal;
+	private int robot;
+	private byte[] trace;
+
+	// type of every event and the plan that was recorded for it, null
+	// for events that don't plan
+	private byte[] eventTypes;
+	private PlanResult[] recorded;
+
+	/**
+	 * Outcome of replaying a trace into one planner, indexed by event
+	 */
+	public static class Run {
+
+		private long[] expansions;
+		private long[] elapsedNanos;
+		private PlanResult[] results;
+
+		private Run(int events){
+			expansions = new long[events];
+			elapsedNanos = new long[events];
+			results = new PlanResult[events];
+		}
+
+		/**
+		 * Returns the states expanded while the planner handled an event
+		 */
+		public long getExpansions(int event) {
+			return expansions[event];
+		}
+
+		/**
+		 * Returns the time the planner took to handle an event
+		 */
+		public long getElapsedNanos(int event) {
+			return elapsedNanos[event];
+		}
+
+		/**
+		 * Returns the plan of an event, null for events that don't plan
+		 */
+		public PlanResult getResult(int event) {
+			return results[event];
+		}
+	}
+
+	private TraceReplay(){
+	}
+
+	/**
+	 * Reads a trace and checks that its events are well formed
+	 *
+	 * @param filename path of the trace
+	 * @return the trace, ready to replay
+	 * @throws MapFormatException if the file is not a valid trace
+	 * @throws IOException if the file cannot be read
+	 */
+	public static TraceReplay open(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		byte[] bytes;
+		try{
+			if(file.length() > Integer.MAX_VALUE){
+				throw new MapFormatException("Trace is too large");
+			}
+			bytes = new byte[(int) file.length()];
+			file.readFully(bytes);
+		}finally{
+			file.close();
+		}
+
+		if(bytes.length < HEADER_SIZE){
+			throw new MapFormatException("Trace is shorter than its header");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if(buffer.getInt(0) != TraceRecorder.MAGIC){
+			throw new MapFormatException("Not a planner trace");
+		}
+		if(buffer.getShort(4) != TraceRecorder.VERSION){
+			throw new MapFormatException("Unsupported trace version " + buffer.getShort(4));
+		}
+
+		TraceReplay replay = new TraceReplay();
+		replay.rows = buffer.getInt(6);
+		replay.columns = buffer.getInt(10);
+		replay.start = buffer.getInt(14);
+		replay.goal = buffer.getInt(18);
+		replay.robot = buffer.getInt(22);
+		replay.trace = bytes;
+
+		long cells = (long) replay.rows * replay.columns;
+		if(replay.rows <= 0 || replay.columns <= 0 || cells > Integer.MAX_VALUE){
+			throw new MapFormatException("Invalid map size " + replay.rows + " x " + replay.columns);
+		}
+		if(!replay.isCell(replay.start) || !replay.isCell(replay.goal) || !replay.isCell(replay.robot)){
+			throw new MapFormatException("Start, goal or robot cell is outside of the map");
+		}
+		if(bytes.length < replay.eventsOffset()){
+			throw new MapFormatException("Trace is truncated");
+		}
+
+		replay.scan();
+		return replay;
+	}
+
+	/**
+	 * Builds a map as it was when the trace was started, with the start,
+	 * goal and robot set
+	 *
+	 * @return new map
+	 */
+	public DstarMap createMap(){
+		DstarMap map = new DstarMap(rows, columns);
+		GridStore grid = map.getGrid();
+		int offset = HEADER_SIZE;
+		for(int id = 0; id < grid.size(); id++){
+			int code = (trace[offset + (id >>> 2)] >>> ((id & 3) * 2)) & 3;
+			grid.setState(id, BinaryMap.CODE_STATES[code]);
+		}
+		map.setEndpoints(start, goal);
+		map.setRobotLocation(robot);
+		return map;
+	}
+
+	/**
+	 * Returns the number of events in the trace
+	 *
+	 * @return event count
+	 */
+	public int getEventCount() {
+		return eventTypes.length;
+	}
+
+	/**
+	 * Returns the name of an event's type: initial, obstacle, replan, batch
+	 * or move
+	 */
+	public String getEventName(int event) {
+		return EVENT_NAMES[eventTypes[event]];
+	}
+
+	/**
+	 * Returns the plan that was recorded for an event, null for events that
+	 * don't plan.  Expansions and times are not recorded
+	 */
+	public PlanResult getRecorded(int event) {
+		return recorded[event];
+	}
+
+	/**
+	 * Checks a replayed plan against the recorded one.  Statuses have to be
+	 * the same, path costs only when both plans are optimal, since an
+	 * inflated plan depends on how far the planner got
+	 *
+	 * @param event index of the event
+	 * @param result replayed plan
+	 * @return true if the plans agree
+	 */
+	public boolean matches(int event, PlanResult result){
+		PlanResult expected = recorded[event];
+		if(expected == null){
+			return result == null;
+		}
+		if(result == null || expected.getStatus() != result.getStatus()){
+			return false;
+		}
+		if(expected.getEpsilon() != 1 || result.getEpsilon() != 1 || !result.isReachable()){
+			return true;
+		}
+		return Math.abs(expected.getPathCost() - result.getPathCost()) < 1e-6;
+	}
+
+	/**
+	 * Feeds every event of the trace into a planner.  The planner has to be
+	 * built on a map from createMap() and not have planned yet
+	 *
+	 * @param planner planner to replay into
+	 * @return expansions, times and plans of every event
+	 */
+	public Run replay(DstarPlanner planner){
+		DstarMap map = planner.getMap();
+		GridStore grid = map.getGrid();
+		if(grid.getRows() != rows || grid.getColumns() != columns){
+			throw new IllegalArgumentException("Planner map is " + grid.getRows() + " x " + grid.getColumns()
+					+ ", trace map is " + rows + " x " + columns);
+		}
+
+		Run run = new Run(eventTypes.length);
+		Decoder in = new Decoder(robot);
+		for(int event = 0; event < eventTypes.length; event++){
+			byte type = trace[in.offset++];
+			long expansions = planner.getExpansions();
+			long started = System.nanoTime();
+
+			PlanResult result = null;
+			if(type == TraceRecorder.INITIAL_PLAN){
+				result = planner.computeInitialPlan();
+			}else if(type == TraceRecorder.OBSTACLE){
+				int cell = in.readCell();
+				planner.reportObstacle(grid.rowOf(cell), grid.columnOf(cell));
+			}else if(type == TraceRecorder.REPLAN){
+				result = planner.replan();
+			}else if(type == TraceRecorder.BATCH){
+				CostUpdateBatch batch = new CostUpdateBatch(map);
+				int obstacles = in.readVarint();
+				for(int i = 0; i < obstacles; i++){
+					int cell = in.readCell();
+					batch.addObstacle(grid.rowOf(cell), grid.columnOf(cell));
+				}
+				int edges = in.readVarint();
+				for(int i = 0; i < edges; i++){
+					int from = in.readCell();
+					int to = in.readCell();
+					batch.addEdgeCost(grid.rowOf(from), grid.columnOf(from), grid.rowOf(to), grid.columnOf(to), in.readDouble());
+				}
+				result = planner.replan(batch);
+			}else{
+				int cell = in.readCell();
+				planner.moveRobot(grid.rowOf(cell), grid.columnOf(cell));
+				in.robot = cell;
+			}
+
+			run.elapsedNanos[event] = System.nanoTime() - started;
+			run.expansions[event] = planner.getExpansions() - expansions;
+			run.results[event] = result;
+			if(recorded[event] != null){
+				in.offset += RESULT_SIZE;
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Walks the events once to count them, check them and read the plans
+	 * that were recorded
+	 */
+	private void scan() throws MapFormatException {
+		byte[] types = new byte[16];
+		PlanResult[] results = new PlanResult[16];
+		int count = 0;
+
+		Decoder in = new Decoder(robot);
+		try{
+			while(in.offset < trace.length){
+				byte type = trace[in.offset++];
+				boolean plans = false;
+				if(type == TraceRecorder.INITIAL_PLAN || type == TraceRecorder.REPLAN){
+					plans = true;
+				}else if(type == TraceRecorder.OBSTACLE){
+					checkCell(in.readCell());
+				}else if(type == TraceRecorder.BATCH){
+					int obstacles = in.readVarint();
+					for(int i = 0; i < obstacles; i++){
+						checkCell(in.readCell());
+					}
+					int edges = in.readVarint();
+					for(int i = 0; i < edges; i++){
+						checkCell(in.readCell());
+						checkCell(in.readCell());
+						in.readDouble();
+					}
+					plans = true;
+				}else if(type == TraceRecorder.MOVE){
+					in.robot = checkCell(in.readCell());
+				}else{
+					throw new MapFormatException("Unknown event type " + type + " in event " + count);
+				}
+
+				if(count == types.length){
+					types = Arrays.copyOf(types, count * 2);
+					results = Arrays.copyOf(results, count * 2);
+				}
+				types[count] = type;
+				if(plans){
+					int status = trace[in.offset++];
+					if(status < 0 || status >= PlanResult.Status.values().length){
+						throw new MapFormatException("Unknown plan status " + status + " in event " + count);
+					}
+					double cost = in.readDouble();
+					double epsilon = in.readDouble();
+					results[count] = new PlanResult(PlanResult.Status.values()[status], 0, 0, cost, epsilon);
+				}
+				count++;
+			}
+		}catch(ArrayIndexOutOfBoundsException e){
+			throw new MapFormatException("Trace is truncated in event " + count);
+		}
+
+		eventTypes = Arrays.copyOf(types, count);
+		recorded = Arrays.copyOf(results, count);
+	}
+
+	private int checkCell(int cell) throws MapFormatException {
+		if(!isCell(cell)){
+			throw new MapFormatException("Cell " + cell + " is outside of the map");
+		}
+		return cell;
+	}
+
+	private boolean isCell(int id){
+		return id >= 0 && id < (long) rows * columns;
+	}
+
+	/**
+	 * Offset of the first event, after the packed cells
+	 */
+	private int eventsOffset(){
+		return (int) (HEADER_SIZE + ((long) rows * columns + 3) / 4);
+	}
+
+	/**
+	 * Reads the values of events, cells relative to the robot
+	 */
+	private class Decoder {
+
+		private int offset;
+		private int robot;
+
+		private Decoder(int robot){
+			this.offset = eventsOffset();
+			this.robot = robot;
+		}
+
+		private int readVarint(){
+			int value = 0;
+			for(int shift = 0; ; shift += 7){
+				int b = trace[offset++];
+				value |= (b & 0x7f) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+		}
+
+		private int readCell(){
+			int zigzag = readVarint();
+			return robot + ((zigzag >>> 1) ^ -(zigzag & 1));
+		}
+
+		private double readDouble(){
+			long bits = 0;
+			for(int i = 0; i < 8; i++){
+				bits = (bits << 8) | (trace[offset++] & 0xff);
+			}
+			return Double.longBitsToDouble(bits);
+		}
+	}
+
+	/**
+	 * Replays a trace into a fresh planner and prints every event
+	 *
+	 * @param args trace file and the planner: basic, focused, lite or anytime
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1 || args.length > 2){
+			System.err.println("Usage: java dstar.TraceReplay trace [basic|focused|lite|anytime]");
+			return;
+		}
+
+		TraceReplay trace;
+		try{
+			trace = open(args[0]);
+		}catch(IOException e){
+			System.err.println(e.getMessage());
+			return;
+		}
+
+		String engine = args.length == 2 ? args[1] : "basic";
+		DstarMap map = trace.createMap();
+		DstarPlanner planner;
+		if(engine.equals("basic")){
+			planner = new DstarPathFinder(map);
+		}else if(engine.equals("focused")){
+			planner = new DstarPathFinder(map, OpenListType.INDEXED_HEAP, SearchMode.FOCUSED);
+		}else if(engine.equals("lite")){
+			planner = new DstarLitePathFinder(map);
+		}else if(engine.equals("anytime")){
+			planner = new AnytimeDstarPathFinder(map);
+		}else{
+			System.err.println("Unknown planner: " + engine);
+			return;
+		}
+
+		Run run = trace.replay(planner);
+
+		System.out.println(String.format("%6s %-9s %11s %10s %-12s %10s %10s",
+				"event", "type", "expansions", "us", "status", "cost", "recorded"));
+		long expansions = 0;
+		long nanos = 0;
+		int mismatches = 0;
+		for(int event = 0; event < trace.getEventCount(); event++){
+			PlanResult result = run.getResult(event);
+			PlanResult expected = trace.getRecorded(event);
+			expansions += run.getExpansions(event);
+			nanos += run.getElapsedNanos(event);
+
+			String line = String.format("%6d %-9s %11d %10.1f", event, trace.getEventName(event),
+					run.getExpansions(event), run.getElapsedNanos(event) / 1e3);
+			if(result != null){
+				line += String.format(" %-12s %10.1f %10.1f", result.getStatus(), result.getPathCost(), expected.getPathCost());
+				if(!trace.matches(event, result)){
+					line += " MISMATCH";
+					mismatches++;
+				}
+			}
+			System.out.println(line);
+		}
+		System.out.println(String.format("%d events, %d expansions, %.1f ms, %d mismatches",
+				trace.getEventCount(), expansions, nanos / 1e6, mismatches));
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * @author J. Levy, P. Shafer
+ *
+ * Next step for the robot, as returned by DstarPlanner.nextWaypoint()
+ */
+package dstar;
+
+public class Waypoint {
+
+	public enum Status {
+		// move to the cell of this waypoint
+		MOVE,
+		// the robot is at the goal, the waypoint is the goal itself
+		GOAL_REACHED,
+		// the robot has no path, the waypoint is the robot's own cell
+		NO_PATH,
+		// a budgeted plan is not done yet and the robot has no path it can
+		// still follow, the waypoint is the robot's own cell
+		HOLD
+	}
+
+	private Status status;
+	private int cell;
+	private int row;
+	private int column;
+	private byte state;
+
+	/**
+	 * @param status what the robot should do
+	 * @param cell cell id of the waypoint
+	 * @param row row of the waypoint
+	 * @param column column of the waypoint
+	 * @param state map state of the waypoint (O, B or U)
+	 */
+	public Waypoint(Status status, int cell, int row, int column, byte state){
+		this.status = status;
+		this.cell = cell;
+		this.row = row;
+		this.column = column;
+		this.state = state;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public int getCell() {
+		return cell;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public byte getState() {
+		return state;
+	}
+
+	/**
+	 * Returns true if the map marks the waypoint as unknown (U), ie. the
+	 * robot will only find out if it is passable once it gets there
+	 *
+	 * @return true if the waypoint state is U
+	 */
+	public boolean isUnknown() {
+		return state == GridStore.STATE_UNKNOWN;
+	}
+
+	public String toString() {
+		return status + " (" + row + "," + column + ")";
+	}
+}
@@ -1,5 +1,8 @@
+import java.io.IOException;
+
 import dstar.DstarMap;
 import dstar.DstarPathFinder;
+import dstar.MapLoader;
 
 /**
  * 
@@ -15,10 +18,14 @@ public class mapTestDriver {
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
 		
-		// create and initialize the map
-		DstarMap map = new DstarMap(7,7);
-		// load a map
-		map.loadMap("src/map2.txt");
+		// load a map, the size is worked out from the file
+		DstarMap map;
+		try{
+			map = MapLoader.load("src/map2.txt");
+		}catch(IOException e){
+			System.err.println(e.getMessage());
+			return;
+		}
 
 		// instantiate the DstarPathFinder object
 		DstarPathFinder pathFinder = new DstarPathFinder(map);